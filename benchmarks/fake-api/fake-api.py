@@ -0,0 +1,82 @@
+# Stands in for the WakaTime API: accepts bulk heartbeats like
+# /api/v1/users/current/heartbeats.bulk and sends them nowhere. Prints
+# the port it listens on, then serves until killed. GET /stats returns
+# how many requests, heartbeats and connections it saw, to check that
+# requests were gzipped and connections kept alive.
+#
+#   python benchmarks/fake-api/fake-api.py [port]
+
+import gzip
+import io
+import json
+import sys
+import threading
+
+try:
+    from http.server import BaseHTTPRequestHandler, HTTPServer
+    from socketserver import ThreadingMixIn
+except ImportError:
+    from BaseHTTPServer import BaseHTTPRequestHandler, HTTPServer
+    from SocketServer import ThreadingMixIn
+
+stats = {'requests': 0, 'heartbeats': 0, 'connections': 0, 'gzipped': 0}
+lock = threading.Lock()
+
+
+class Handler(BaseHTTPRequestHandler):
+    protocol_version = 'HTTP/1.1'
+    disable_nagle_algorithm = True  # headers and body go out in separate writes
+
+    def setup(self):
+        BaseHTTPRequestHandler.setup(self)
+        with lock:
+            stats['connections'] += 1
+
+    def do_GET(self):
+        if self.path.rstrip('/').endswith('/stats'):
+            with lock:
+                self.reply(200, stats)
+        else:
+            self.reply(404, {'error': 'Not found'})
+
+    def do_POST(self):
+        body = self.rfile.read(int(self.headers.get('Content-Length', 0)))
+        if not self.path.endswith('/users/current/heartbeats.bulk'):
+            return self.reply(404, {'error': 'Not found'})
+        if not self.headers.get('Authorization', '').startswith('Basic '):
+            return self.reply(401, {'error': 'Unauthorized'})
+        gzipped = self.headers.get('Content-Encoding') == 'gzip'
+        if gzipped:
+            body = gzip.GzipFile(fileobj=io.BytesIO(body)).read()
+        try:
+            heartbeats = json.loads(body.decode('utf-8'))
+        except ValueError:
+            return self.reply(400, {'error': 'Invalid JSON'})
+        if len(heartbeats) > 25:
+            return self.reply(400, {'error': 'Too many heartbeats'})
+        with lock:
+            stats['requests'] += 1
+            stats['heartbeats'] += len(heartbeats)
+            stats['gzipped'] += 1 if gzipped else 0
+        self.reply(202, {'responses': [[{'data': h}, 201] for h in heartbeats]})
+
+    def reply(self, status, data):
+        body = json.dumps(data).encode('utf-8')
+        self.send_response(status)
+        self.send_header('Content-Type', 'application/json')
+        self.send_header('Content-Length', str(len(body)))
+        self.end_headers()
+        self.wfile.write(body)
+
+    def log_message(self, format, *args):
+        pass
+
+
+class Server(ThreadingMixIn, HTTPServer):
+    daemon_threads = True
+
+
+server = Server(('127.0.0.1', int(sys.argv[1]) if len(sys.argv) > 1 else 0), Handler)
+sys.stdout.write('%d\n' % server.server_address[1])
+sys.stdout.flush()
+server.serve_forever()
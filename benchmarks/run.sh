@@ -0,0 +1,24 @@
+#!/bin/sh
+# Builds the plugin against the stubs in benchmarks/stubs and runs the JMH
+# benchmarks. JMH_CLASSPATH must list jmh-core, jmh-generator-annprocess
+# and their dependencies (jopt-simple, commons-math3).
+#
+#   JMH_CLASSPATH=... benchmarks/run.sh [jmh options] [benchmark regex]
+
+set -e
+
+if [ -z "$JMH_CLASSPATH" ]; then
+    echo "Set JMH_CLASSPATH to the JMH jars, see benchmarks/README.md" >&2
+    exit 1
+fi
+
+cd "$(dirname "$0")/.."
+BUILD=benchmarks/build
+rm -rf "$BUILD"
+mkdir -p "$BUILD/classes"
+
+find src benchmarks/stubs benchmarks/src -name '*.java' > "$BUILD/sources.txt"
+javac -source 1.8 -target 1.8 -nowarn -cp "$JMH_CLASSPATH" -d "$BUILD/classes" @"$BUILD/sources.txt"
+cp src/com/wakatime/intellij/plugin/wakatime-worker.py "$BUILD/classes/com/wakatime/intellij/plugin/"
+
+exec java -Djava.awt.headless=true -cp "$BUILD/classes:$JMH_CLASSPATH" org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,148 @@
+/* ==========================================================
+File:        BenchmarkFakes.java
+Description: In-memory IDE objects for running benchmarks headless.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.project.ProjectManagerListener;
+import com.intellij.openapi.util.UserDataHolderBase;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class BenchmarkFakes {
+
+    public static final String PYTHON = System.getProperty("benchmark.python", "python");
+    public static final String FAKE_CLI = "benchmarks/fake-cli/fake-cli.py";
+    public static final String FAKE_WORKER = "benchmarks/fake-cli/fake-worker.py";
+    public static final String FAKE_API = "benchmarks/fake-api/fake-api.py";
+
+    private static final Map<com.intellij.openapi.editor.Document, VirtualFile> files =
+            new IdentityHashMap<com.intellij.openapi.editor.Document, VirtualFile>();
+    private static boolean installed = false;
+
+    /**
+     * Points user.home at a temporary directory holding a config file and
+     * installs the IDE singletons the plugin looks up. Call before any
+     * plugin class reads the config.
+     */
+    public static synchronized void install() throws IOException {
+        if (installed)
+            return;
+        installed = true;
+        File home = File.createTempFile("wakatime-benchmark", "");
+        home.delete();
+        home.mkdirs();
+        FileOutputStream config = new FileOutputStream(new File(home, WakaTime.CONFIG));
+        config.write(("[settings]\n"
+                + "api_key = 2f0b2a9c-6d4f-4c1e-9d77-8e3b5f1a0c42\n"
+                + "debug = false\n").getBytes("UTF-8"));
+        config.close();
+        System.setProperty("user.home", home.getAbsolutePath());
+
+        WakaTime.IDE_NAME = "idea";
+        WakaTime.IDE_VERSION = "15.0.1";
+
+        FileDocumentManager.setInstance(new FileDocumentManager() {
+            @Override
+            public VirtualFile getFile(com.intellij.openapi.editor.Document document) {
+                return files.get(document);
+            }
+
+            @Override
+            public com.intellij.openapi.editor.Document getDocument(VirtualFile file) {
+                return null;
+            }
+        });
+        ProjectManager.setInstance(new ProjectManager() {
+            @Override
+            public Project getDefaultProject() {
+                return null;
+            }
+
+            @Override
+            public Project[] getOpenProjects() {
+                return new Project[0];
+            }
+
+            @Override
+            public void addProjectManagerListener(ProjectManagerListener listener) {
+            }
+        });
+    }
+
+    public static Document openDocument(String path) {
+        Document document = new Document();
+        files.put(document, new FakeFile(path));
+        return document;
+    }
+
+    public static class Document extends UserDataHolderBase implements com.intellij.openapi.editor.Document {
+        public long getModificationStamp() {
+            return 0;
+        }
+
+        // forgets what the plugin cached on the document
+        public void clearUserData() {
+            putUserData(CustomDocumentListener.NEXT_HEARTBEAT, null);
+        }
+    }
+
+    public static class Event extends DocumentEvent {
+        private final com.intellij.openapi.editor.Document document;
+
+        public Event(com.intellij.openapi.editor.Document document) {
+            this.document = document;
+        }
+
+        @Override
+        public com.intellij.openapi.editor.Document getDocument() {
+            return document;
+        }
+    }
+
+    public static class FakeFile extends VirtualFile {
+        private final String path;
+
+        public FakeFile(String path) {
+            this.path = path;
+        }
+
+        public String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getUrl() {
+            return "file://" + path;
+        }
+
+        public VirtualFile getParent() {
+            int slash = path.lastIndexOf('/');
+            return slash > 0 ? new FakeFile(path.substring(0, slash)) : null;
+        }
+
+        public boolean isDirectory() {
+            return false;
+        }
+
+        public boolean isValid() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/* ==========================================================
+File:        DispatchBenchmark.java
+Description: Heartbeats per second through the dispatcher to a fake cli or api.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends heartbeats through HeartbeatDispatcher to the fake cli in
+ * benchmarks/fake-cli, either through one long-lived worker process or by
+ * spawning a process per batch, or with HttpSender to the fake api in
+ * benchmarks/fake-api, and waits until all were sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    public static final int HEARTBEATS = 100;
+
+    @Param({"worker", "spawn", "native"})
+    public String mode;
+
+    private HeartbeatDispatcher dispatcher;
+    private CliWorker worker;
+    private Process api;
+    private final Semaphore sent = new Semaphore(0);
+    private Heartbeat[] heartbeats;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkFakes.install();
+        worker = new CliWorker(new String[] {BenchmarkFakes.PYTHON, BenchmarkFakes.FAKE_WORKER});
+        if (mode.equals("native")) {
+            api = new ProcessBuilder(BenchmarkFakes.PYTHON, BenchmarkFakes.FAKE_API).start();
+            String port = new BufferedReader(new InputStreamReader(api.getInputStream(), "UTF-8")).readLine();
+            ConfigFile.set("settings", "api_url", "http://127.0.0.1:" + port + "/api/v1");
+        }
+        dispatcher = new HeartbeatDispatcher(new HeartbeatDispatcher.Sender() {
+            public void send(List<Heartbeat> batch) {
+                Heartbeat first = batch.get(0);
+                ArrayList<Heartbeat> extra = new ArrayList<Heartbeat>(batch.subList(1, batch.size()));
+                String[] cmds = WakaTime.buildCliCommand(first, extra);
+                String input = extra.isEmpty() ? null : Heartbeat.toJSON(extra);
+                if (mode.equals("native")) {
+                    if (HttpSender.send(batch).size() < batch.size())
+                        throw new IllegalStateException("fake api unavailable");
+                } else if (mode.equals("worker")) {
+                    if (worker.send(Arrays.copyOfRange(cmds, 2, cmds.length), input) == null)
+                        throw new IllegalStateException("fake worker unavailable");
+                } else {
+                    spawn(cmds, input);
+                }
+                sent.release(batch.size());
+            }
+
+            public void dropped(Heartbeat heartbeat) {
+            }
+        }, 0, WakaTime.MAX_BATCH_SIZE, HeartbeatDispatcher.QUEUE_CAPACITY);
+        dispatcher.start();
+        heartbeats = new Heartbeat[HEARTBEATS];
+        for (int i = 0; i < HEARTBEATS; i++) {
+            heartbeats[i] = new Heartbeat("/home/user/projects/app/src/File" + i + ".java",
+                    System.currentTimeMillis(), false, "app");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.stop();
+        worker.stop();
+        if (api != null)
+            api.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HEARTBEATS)
+    public void dispatch() throws InterruptedException {
+        for (Heartbeat heartbeat : heartbeats) {
+            dispatcher.add(heartbeat);
+        }
+        sent.acquire(HEARTBEATS);
+    }
+
+    private static void spawn(String[] cmds, String input) {
+        String[] fake = cmds.clone();
+        fake[0] = BenchmarkFakes.PYTHON;
+        fake[1] = BenchmarkFakes.FAKE_CLI;
+        try {
+            Process proc = new ProcessBuilder(fake).redirectErrorStream(true).start();
+            Writer stdin = new OutputStreamWriter(proc.getOutputStream(), "UTF-8");
+            if (input != null)
+                stdin.write(input + "\n");
+            stdin.close();
+            while (proc.getInputStream().read() != -1) { }
+            proc.waitFor();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* ==========================================================
+File:        HeartbeatBenchmark.java
+Description: Cost of building heartbeats and reading settings.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeartbeatBenchmark {
+
+    private Heartbeat heartbeat;
+    private ArrayList<Heartbeat> noExtraHeartbeats;
+    private ArrayList<Heartbeat> extraHeartbeats;
+    private String[] cmds;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkFakes.install();
+        heartbeat = new Heartbeat("/home/user/projects/app/src/main/java/com/example/Main.java",
+                System.currentTimeMillis(), false, "app");
+        noExtraHeartbeats = new ArrayList<Heartbeat>();
+        extraHeartbeats = new ArrayList<Heartbeat>();
+        for (int i = 1; i < WakaTime.MAX_BATCH_SIZE; i++) {
+            extraHeartbeats.add(new Heartbeat("/home/user/projects/app/src/main/java/com/example/File" + i + ".java",
+                    System.currentTimeMillis() + i, i % 5 == 0, "app"));
+        }
+        // resolves and remembers the python binary outside the measurement
+        Dependencies.getPythonLocation();
+        cmds = WakaTime.buildCliCommand(heartbeat, noExtraHeartbeats);
+    }
+
+    @Benchmark
+    public String[] buildCliCommand() {
+        return WakaTime.buildCliCommand(heartbeat, noExtraHeartbeats);
+    }
+
+    @Benchmark
+    public String[] buildCliCommandWithExtraHeartbeats() {
+        return WakaTime.buildCliCommand(heartbeat, extraHeartbeats);
+    }
+
+    @Benchmark
+    public String extraHeartbeatsJson() {
+        return Heartbeat.toJSON(extraHeartbeats);
+    }
+
+    @Benchmark
+    public boolean shouldLogFile() {
+        return WakaTime.shouldLogFile(heartbeat.getEntity());
+    }
+
+    @Benchmark
+    public String[] obfuscateKey() {
+        return WakaTime.obfuscateKey(cmds);
+    }
+
+    @Benchmark
+    public String getApiKey() {
+        return ApiKey.getApiKey();
+    }
+
+    @Benchmark
+    public Boolean isDebugEnabled() {
+        return WakaTime.isDebugEnabled();
+    }
+
+    /**
+     * Reading and parsing ~/.wakatime.cfg, paid once per change to the file.
+     */
+    @Benchmark
+    public ConfigFile reloadConfig() {
+        ConfigFile.reload();
+        return ConfigFile.get();
+    }
+}
@@ -0,0 +1,66 @@
+/* ==========================================================
+File:        KeystrokeBenchmark.java
+Description: Cost of the document listener on every keystroke.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeystrokeBenchmark {
+
+    private CustomDocumentListener listener;
+    private BenchmarkFakes.Document document;
+    private BenchmarkFakes.Event event;
+    private BenchmarkFakes.Event filteredEvent;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkFakes.install();
+        listener = new CustomDocumentListener();
+        document = BenchmarkFakes.openDocument("/home/user/projects/app/src/main/java/com/example/Main.java");
+        event = new BenchmarkFakes.Event(document);
+        filteredEvent = new BenchmarkFakes.Event(BenchmarkFakes.openDocument("/home/user/projects/app/.idea/workspace.xml"));
+        // the first change sends the heartbeat, later ones are throttled
+        listener.documentChanged(event);
+        listener.documentChanged(filteredEvent);
+    }
+
+    /**
+     * A keystroke while the document's heartbeat is throttled, the common case.
+     */
+    @Benchmark
+    public void throttledKeystroke() {
+        listener.documentChanged(event);
+    }
+
+    /**
+     * A keystroke in an excluded file.
+     */
+    @Benchmark
+    public void filteredKeystroke() {
+        listener.documentChanged(filteredEvent);
+    }
+
+    /**
+     * A keystroke after the cached eligible time passed, so the file is
+     * resolved and the throttle consulted.
+     */
+    @Benchmark
+    public void expiredKeystroke() {
+        document.clearUserData();
+        listener.documentChanged(event);
+    }
+}
@@ -0,0 +1,8 @@
+package com.intellij;
+
+import com.intellij.openapi.fileEditor.FileDocumentManagerListener;
+import com.intellij.util.messages.Topic;
+
+public class AppTopics {
+    public static final Topic<FileDocumentManagerListener> FILE_DOCUMENT_SYNC = new Topic<FileDocumentManagerListener>();
+}
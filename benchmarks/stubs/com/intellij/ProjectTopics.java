@@ -0,0 +1,8 @@
+package com.intellij;
+
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.util.messages.Topic;
+
+public class ProjectTopics {
+    public static final Topic<ModuleRootListener> PROJECT_ROOTS = new Topic<ModuleRootListener>();
+}
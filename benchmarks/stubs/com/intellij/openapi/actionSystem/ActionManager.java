@@ -0,0 +1,13 @@
+package com.intellij.openapi.actionSystem;
+
+public abstract class ActionManager {
+    private static ActionManager instance;
+
+    public static ActionManager getInstance() {
+        return instance;
+    }
+
+    public abstract void registerAction(String actionId, AnAction action);
+
+    public abstract AnAction getAction(String actionId);
+}
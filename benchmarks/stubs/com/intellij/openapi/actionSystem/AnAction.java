@@ -0,0 +1,11 @@
+package com.intellij.openapi.actionSystem;
+
+public abstract class AnAction {
+    public AnAction() {
+    }
+
+    public AnAction(String text) {
+    }
+
+    public abstract void actionPerformed(AnActionEvent e);
+}
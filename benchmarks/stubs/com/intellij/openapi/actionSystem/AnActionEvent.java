@@ -0,0 +1,7 @@
+package com.intellij.openapi.actionSystem;
+
+public class AnActionEvent {
+    public <T> T getData(DataKey<T> key) {
+        return null;
+    }
+}
@@ -0,0 +1,7 @@
+package com.intellij.openapi.actionSystem;
+
+public class DataKey<T> {
+    public T getData(DataContext dataContext) {
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package com.intellij.openapi.actionSystem;
+
+public class DefaultActionGroup extends AnAction {
+    public DefaultActionGroup() {
+    }
+
+    public DefaultActionGroup(String shortName, boolean popup) {
+    }
+
+    public void addSeparator() {
+    }
+
+    public void add(AnAction action) {
+    }
+
+    public void actionPerformed(AnActionEvent e) {
+    }
+}
@@ -0,0 +1,9 @@
+package com.intellij.openapi.actionSystem;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+
+public class PlatformDataKeys {
+    public static final DataKey<Project> PROJECT = new DataKey<Project>();
+    public static final DataKey<Editor> EDITOR = new DataKey<Editor>();
+}
@@ -0,0 +1,17 @@
+package com.intellij.openapi.application;
+
+import com.intellij.util.messages.MessageBus;
+
+import java.util.concurrent.Future;
+
+public interface Application {
+    Future<?> executeOnPooledThread(Runnable action);
+
+    void invokeLater(Runnable runnable);
+
+    MessageBus getMessageBus();
+
+    boolean isDispatchThread();
+
+    void runReadAction(Runnable action);
+}
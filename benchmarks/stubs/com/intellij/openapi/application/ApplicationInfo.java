@@ -0,0 +1,11 @@
+package com.intellij.openapi.application;
+
+public abstract class ApplicationInfo {
+    private static ApplicationInfo instance;
+
+    public static ApplicationInfo getInstance() {
+        return instance;
+    }
+
+    public abstract String getFullVersion();
+}
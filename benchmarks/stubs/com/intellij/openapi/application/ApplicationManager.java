@@ -0,0 +1,13 @@
+package com.intellij.openapi.application;
+
+public class ApplicationManager {
+    private static Application application;
+
+    public static Application getApplication() {
+        return application;
+    }
+
+    public static void setApplication(Application app) {
+        application = app;
+    }
+}
@@ -0,0 +1,9 @@
+package com.intellij.openapi.components;
+
+public interface ApplicationComponent {
+    void initComponent();
+
+    void disposeComponent();
+
+    String getComponentName();
+}
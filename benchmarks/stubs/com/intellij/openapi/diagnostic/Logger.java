@@ -0,0 +1,52 @@
+package com.intellij.openapi.diagnostic;
+
+import org.apache.log4j.Level;
+
+/**
+ * Discards everything below warn, and prints warnings and errors to stderr.
+ */
+public class Logger {
+    public static Logger getInstance(String category) {
+        return new Logger();
+    }
+
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
+    public void setLevel(Level level) {
+    }
+
+    public void debug(String message) {
+    }
+
+    public void debug(Throwable t) {
+    }
+
+    public void info(String message) {
+    }
+
+    public void warn(String message) {
+        System.err.println("WARN " + message);
+    }
+
+    public void warn(Throwable t) {
+        System.err.println("WARN " + t);
+    }
+
+    public void warn(String message, Throwable t) {
+        System.err.println("WARN " + message + " " + t);
+    }
+
+    public void error(String message) {
+        System.err.println("ERROR " + message);
+    }
+
+    public void error(Throwable t) {
+        System.err.println("ERROR " + t);
+    }
+
+    public void error(String message, Throwable t) {
+        System.err.println("ERROR " + message + " " + t);
+    }
+}
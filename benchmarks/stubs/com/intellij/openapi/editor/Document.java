@@ -0,0 +1,7 @@
+package com.intellij.openapi.editor;
+
+import com.intellij.openapi.util.UserDataHolder;
+
+public interface Document extends UserDataHolder {
+    long getModificationStamp();
+}
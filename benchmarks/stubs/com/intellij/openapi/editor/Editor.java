@@ -0,0 +1,9 @@
+package com.intellij.openapi.editor;
+
+public interface Editor {
+    Document getDocument();
+
+    CaretModel getCaretModel();
+
+    ScrollingModel getScrollingModel();
+}
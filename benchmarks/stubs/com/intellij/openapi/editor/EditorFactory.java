@@ -0,0 +1,17 @@
+package com.intellij.openapi.editor;
+
+import com.intellij.openapi.editor.event.EditorEventMulticaster;
+
+public abstract class EditorFactory {
+    private static EditorFactory instance;
+
+    public static EditorFactory getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(EditorFactory factory) {
+        instance = factory;
+    }
+
+    public abstract EditorEventMulticaster getEventMulticaster();
+}
@@ -0,0 +1,7 @@
+package com.intellij.openapi.editor.event;
+
+import com.intellij.openapi.editor.Document;
+
+public abstract class DocumentEvent {
+    public abstract Document getDocument();
+}
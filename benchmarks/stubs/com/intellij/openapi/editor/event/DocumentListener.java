@@ -0,0 +1,7 @@
+package com.intellij.openapi.editor.event;
+
+public interface DocumentListener {
+    void beforeDocumentChange(DocumentEvent event);
+
+    void documentChanged(DocumentEvent event);
+}
@@ -0,0 +1,5 @@
+package com.intellij.openapi.editor.event;
+
+public interface EditorEventMulticaster {
+    void addDocumentListener(DocumentListener listener);
+}
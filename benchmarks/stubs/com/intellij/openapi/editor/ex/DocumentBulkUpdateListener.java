@@ -0,0 +1,12 @@
+package com.intellij.openapi.editor.ex;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.util.messages.Topic;
+
+public interface DocumentBulkUpdateListener {
+    Topic<DocumentBulkUpdateListener> TOPIC = new Topic<DocumentBulkUpdateListener>();
+
+    void updateStarted(Document doc);
+
+    void updateFinished(Document doc);
+}
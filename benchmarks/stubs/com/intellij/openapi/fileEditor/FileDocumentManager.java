@@ -0,0 +1,20 @@
+package com.intellij.openapi.fileEditor;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.vfs.VirtualFile;
+
+public abstract class FileDocumentManager {
+    private static FileDocumentManager instance;
+
+    public static FileDocumentManager getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(FileDocumentManager manager) {
+        instance = manager;
+    }
+
+    public abstract VirtualFile getFile(Document document);
+
+    public abstract Document getDocument(VirtualFile file);
+}
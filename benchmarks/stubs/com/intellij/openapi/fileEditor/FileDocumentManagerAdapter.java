@@ -0,0 +1,8 @@
+package com.intellij.openapi.fileEditor;
+
+import com.intellij.openapi.editor.Document;
+
+public class FileDocumentManagerAdapter implements FileDocumentManagerListener {
+    public void beforeDocumentSaving(Document document) {
+    }
+}
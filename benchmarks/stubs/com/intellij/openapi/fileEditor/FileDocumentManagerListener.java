@@ -0,0 +1,7 @@
+package com.intellij.openapi.fileEditor;
+
+import com.intellij.openapi.editor.Document;
+
+public interface FileDocumentManagerListener {
+    void beforeDocumentSaving(Document document);
+}
@@ -0,0 +1,18 @@
+package com.intellij.openapi.fileEditor;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+
+public abstract class FileEditorManager {
+    private static FileEditorManager instance;
+
+    public static FileEditorManager getInstance(Project project) {
+        return instance;
+    }
+
+    public static void setInstance(FileEditorManager manager) {
+        instance = manager;
+    }
+
+    public abstract Editor getSelectedTextEditor();
+}
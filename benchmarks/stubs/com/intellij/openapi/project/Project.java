@@ -0,0 +1,19 @@
+package com.intellij.openapi.project;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.messages.MessageBus;
+
+public interface Project extends Disposable {
+    String getName();
+
+    VirtualFile getBaseDir();
+
+    MessageBus getMessageBus();
+
+    boolean isDefault();
+
+    boolean isDisposed();
+
+    boolean isOpen();
+}
@@ -0,0 +1,19 @@
+package com.intellij.openapi.project;
+
+public abstract class ProjectManager {
+    private static ProjectManager instance;
+
+    public static ProjectManager getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(ProjectManager manager) {
+        instance = manager;
+    }
+
+    public abstract Project getDefaultProject();
+
+    public abstract Project[] getOpenProjects();
+
+    public abstract void addProjectManagerListener(ProjectManagerListener listener);
+}
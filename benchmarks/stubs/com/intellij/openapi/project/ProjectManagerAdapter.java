@@ -0,0 +1,16 @@
+package com.intellij.openapi.project;
+
+public abstract class ProjectManagerAdapter implements ProjectManagerListener {
+    public void projectOpened(Project project) {
+    }
+
+    public boolean canCloseProject(Project project) {
+        return true;
+    }
+
+    public void projectClosed(Project project) {
+    }
+
+    public void projectClosing(Project project) {
+    }
+}
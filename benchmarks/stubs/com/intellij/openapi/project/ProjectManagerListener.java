@@ -0,0 +1,11 @@
+package com.intellij.openapi.project;
+
+public interface ProjectManagerListener {
+    void projectOpened(Project project);
+
+    boolean canCloseProject(Project project);
+
+    void projectClosed(Project project);
+
+    void projectClosing(Project project);
+}
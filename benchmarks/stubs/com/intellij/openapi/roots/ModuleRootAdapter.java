@@ -0,0 +1,9 @@
+package com.intellij.openapi.roots;
+
+public class ModuleRootAdapter implements ModuleRootListener {
+    public void beforeRootsChange(ModuleRootEvent event) {
+    }
+
+    public void rootsChanged(ModuleRootEvent event) {
+    }
+}
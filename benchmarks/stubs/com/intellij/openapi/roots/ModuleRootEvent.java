@@ -0,0 +1,4 @@
+package com.intellij.openapi.roots;
+
+public class ModuleRootEvent {
+}
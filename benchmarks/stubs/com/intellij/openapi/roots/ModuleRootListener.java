@@ -0,0 +1,7 @@
+package com.intellij.openapi.roots;
+
+public interface ModuleRootListener {
+    void beforeRootsChange(ModuleRootEvent event);
+
+    void rootsChanged(ModuleRootEvent event);
+}
@@ -0,0 +1,9 @@
+package com.intellij.openapi.roots;
+
+import com.intellij.openapi.vfs.VirtualFile;
+
+public interface ProjectFileIndex {
+    boolean isInContent(VirtualFile file);
+
+    VirtualFile getContentRootForFile(VirtualFile file);
+}
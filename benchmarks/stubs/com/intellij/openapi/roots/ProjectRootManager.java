@@ -0,0 +1,20 @@
+package com.intellij.openapi.roots;
+
+import com.intellij.openapi.project.Project;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public abstract class ProjectRootManager {
+    private static final Map<Project, ProjectRootManager> managers = new ConcurrentHashMap<Project, ProjectRootManager>();
+
+    public static ProjectRootManager getInstance(Project project) {
+        return managers.get(project);
+    }
+
+    public static void setInstance(Project project, ProjectRootManager manager) {
+        managers.put(project, manager);
+    }
+
+    public abstract ProjectFileIndex getFileIndex();
+}
@@ -0,0 +1,52 @@
+package com.intellij.openapi.ui;
+
+import com.intellij.openapi.project.Project;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JComponent;
+import java.awt.event.ActionEvent;
+
+public abstract class DialogWrapper {
+    public DialogWrapper(Project project, boolean canBeParent) {
+    }
+
+    protected void init() {
+    }
+
+    protected void setTitle(String title) {
+    }
+
+    protected void setOKButtonText(String text) {
+    }
+
+    protected abstract JComponent createCenterPanel();
+
+    protected ValidationInfo doValidate() {
+        return null;
+    }
+
+    public void doOKAction() {
+    }
+
+    public void show() {
+    }
+
+    protected void setModal(boolean modal) {
+    }
+
+    protected Action[] createActions() {
+        return new Action[] {getOKAction()};
+    }
+
+    protected Action getOKAction() {
+        return new AbstractAction("OK") {
+            public void actionPerformed(ActionEvent e) {
+                doOKAction();
+            }
+        };
+    }
+
+    protected void dispose() {
+    }
+}
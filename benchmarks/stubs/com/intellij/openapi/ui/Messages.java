@@ -0,0 +1,12 @@
+package com.intellij.openapi.ui;
+
+public class Messages {
+    public static void showErrorDialog(String message, String title) {
+    }
+
+    public static void showWarningDialog(String message, String title) {
+    }
+
+    public static void showInfoMessage(String message, String title) {
+    }
+}
@@ -0,0 +1,6 @@
+package com.intellij.openapi.ui;
+
+public class ValidationInfo {
+    public ValidationInfo(String message) {
+    }
+}
@@ -0,0 +1,18 @@
+package com.intellij.openapi.util;
+
+public class Key<T> {
+    private final String name;
+
+    private Key(String name) {
+        this.name = name;
+    }
+
+    public static <T> Key<T> create(String name) {
+        return new Key<T>(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,19 @@
+package com.intellij.openapi.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class UserDataHolderBase implements UserDataHolder {
+    private final ConcurrentHashMap<Key<?>, Object> userData = new ConcurrentHashMap<Key<?>, Object>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T getUserData(Key<T> key) {
+        return (T) userData.get(key);
+    }
+
+    public <T> void putUserData(Key<T> key, T value) {
+        if (value == null)
+            userData.remove(key);
+        else
+            userData.put(key, value);
+    }
+}
@@ -0,0 +1,11 @@
+package com.intellij.openapi.vfs;
+
+public class VfsUtil {
+    public static boolean isAncestor(VirtualFile ancestor, VirtualFile file, boolean strict) {
+        for (VirtualFile parent = strict ? file.getParent() : file; parent != null; parent = parent.getParent()) {
+            if (parent.equals(ancestor))
+                return true;
+        }
+        return false;
+    }
+}
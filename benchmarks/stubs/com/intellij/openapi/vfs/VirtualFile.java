@@ -0,0 +1,17 @@
+package com.intellij.openapi.vfs;
+
+import com.intellij.openapi.util.UserDataHolderBase;
+
+public abstract class VirtualFile extends UserDataHolderBase {
+    public abstract String getName();
+
+    public abstract String getPath();
+
+    public abstract String getUrl();
+
+    public abstract VirtualFile getParent();
+
+    public abstract boolean isDirectory();
+
+    public abstract boolean isValid();
+}
@@ -0,0 +1,8 @@
+package com.intellij.openapi.vfs;
+
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.util.messages.Topic;
+
+public abstract class VirtualFileManager {
+    public static final Topic<BulkFileListener> VFS_CHANGES = new Topic<BulkFileListener>();
+}
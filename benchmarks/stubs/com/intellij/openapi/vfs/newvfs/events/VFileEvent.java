@@ -0,0 +1,5 @@
+package com.intellij.openapi.vfs.newvfs.events;
+
+public abstract class VFileEvent {
+    public abstract String getPath();
+}
@@ -0,0 +1,19 @@
+package com.intellij.openapi.wm;
+
+import com.intellij.openapi.project.Project;
+
+import javax.swing.JFrame;
+
+public abstract class WindowManager {
+    private static WindowManager instance;
+
+    public static WindowManager getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(WindowManager manager) {
+        instance = manager;
+    }
+
+    public abstract JFrame getFrame(Project project);
+}
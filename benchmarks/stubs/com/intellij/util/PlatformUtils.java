@@ -0,0 +1,7 @@
+package com.intellij.util;
+
+public class PlatformUtils {
+    public static String getPlatformPrefix() {
+        return "idea";
+    }
+}
@@ -0,0 +1,9 @@
+package com.intellij.util.messages;
+
+import com.intellij.openapi.Disposable;
+
+public interface MessageBus {
+    MessageBusConnection connect();
+
+    MessageBusConnection connect(Disposable parent);
+}
@@ -0,0 +1,7 @@
+package com.intellij.util.messages;
+
+public interface MessageBusConnection {
+    <L> void subscribe(Topic<L> topic, L handler);
+
+    void disconnect();
+}
@@ -0,0 +1,4 @@
+package com.intellij.util.messages;
+
+public class Topic<L> {
+}
@@ -0,0 +1,11 @@
+package com.sun.jna.platform.win32;
+
+public class Advapi32Util {
+    public static String[] registryGetKeys(WinReg.HKEY root, String key) {
+        return new String[0];
+    }
+
+    public static String registryGetStringValue(WinReg.HKEY root, String key, String value) {
+        return null;
+    }
+}
@@ -0,0 +1,9 @@
+package com.sun.jna.platform.win32;
+
+public class WinReg {
+    public static class HKEY {
+    }
+
+    public static final HKEY HKEY_CURRENT_USER = new HKEY();
+    public static final HKEY HKEY_LOCAL_MACHINE = new HKEY();
+}
@@ -0,0 +1,144 @@
+/* ==========================================================
+File:        ActivitySampler.java
+Description: Detects activity by looking at the focused editor on a timer.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.wm.WindowManager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Enabled with activity_sampling = true in the [settings] section of
+ * ~/.wakatime.cfg. Instead of the document and save listeners doing the
+ * work on every event, they only note the last edited document and each
+ * saved one, and every SAMPLE_INTERVAL this looks at what changed: an
+ * edit, a save, or, while an IDE window has focus, a different selected
+ * editor, a moved caret or a scrolled view. So reading and stepping
+ * through code in the debugger are tracked too, and the cost is one look
+ * per interval however fast the user types. Heartbeats still go through
+ * the same per-file throttle.
+ */
+public class ActivitySampler {
+
+    public static final int SAMPLE_INTERVAL = 1000; // milliseconds between looks at the editor
+
+    private static volatile boolean running = false;
+    // set by the listeners, read and cleared by sample()
+    private static volatile Document edited;
+    private static final ConcurrentLinkedQueue<Document> saved = new ConcurrentLinkedQueue<Document>();
+
+    // what the previous sample saw, only touched on the EDT
+    private static Timer timer;
+    private static Editor lastEditor;
+    private static int lastCaret = -1;
+    private static int lastScroll = -1;
+
+    public static boolean isEnabled() {
+        return ConfigFile.get().getBoolean("settings", "activity_sampling", false);
+    }
+
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts sampling. Must be called on the EDT.
+     */
+    public static void start() {
+        if (timer != null)
+            return;
+        timer = new Timer(SAMPLE_INTERVAL, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                sample();
+            }
+        });
+        timer.start();
+        running = true;
+        WakaTime.log.debug("Sampling editor activity every " + SAMPLE_INTERVAL + " ms");
+    }
+
+    /**
+     * Stops sampling, sending the saves it had not looked at yet. Called
+     * on the EDT when the plugin is disposed.
+     */
+    public static void stop() {
+        running = false;
+        Document document;
+        while ((document = saved.poll()) != null) {
+            CustomSaveListener.documentSaved(document);
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if (timer != null) {
+                    timer.stop();
+                    timer = null;
+                }
+                lastEditor = null;
+            }
+        });
+    }
+
+    public static void documentChanged(Document document) {
+        edited = document;
+    }
+
+    public static void documentSaved(Document document) {
+        saved.add(document);
+    }
+
+    static void sample() {
+        Document document;
+        while ((document = saved.poll()) != null) {
+            CustomSaveListener.documentSaved(document);
+        }
+
+        document = edited;
+        edited = null;
+        Editor editor = getFocusedEditor();
+        boolean moved = false;
+        if (editor != null) {
+            int caret = editor.getCaretModel().getOffset();
+            int scroll = editor.getScrollingModel().getVerticalScrollOffset();
+            moved = editor != lastEditor || caret != lastCaret || scroll != lastScroll;
+            lastCaret = caret;
+            lastScroll = scroll;
+        }
+        lastEditor = editor;
+        if (document == null && moved)
+            document = editor.getDocument();
+        if (document != null)
+            CustomDocumentListener.documentActive(document);
+    }
+
+    /**
+     * Returns the selected text editor of the project whose window has
+     * focus, or null when no IDE window does.
+     */
+    private static Editor getFocusedEditor() {
+        Window window = KeyboardFocusManager.getCurrentKeyboardFocusManager().getActiveWindow();
+        if (window == null)
+            return null;
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            if (project.isDisposed())
+                continue;
+            JFrame frame = WindowManager.getInstance().getFrame(project);
+            if (frame != null && SwingUtilities.isDescendingFrom(window, frame))
+                return FileEditorManager.getInstance(project).getSelectedTextEditor();
+        }
+        return null;
+    }
+}
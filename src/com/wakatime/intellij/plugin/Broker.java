@@ -0,0 +1,421 @@
+/* ==========================================================
+File:        Broker.java
+Description: Shares one heartbeat sender between all running IDEs.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enabled with broker = true in the [settings] section of ~/.wakatime.cfg.
+ * The first IDE to lock ~/.wakatime/jetbrains-broker.lock becomes the
+ * owner: it listens on a loopback port, written with a random token to
+ * jetbrains-broker.properties, and is the only IDE which installs python
+ * and wakatime-cli and runs the cli. Every other IDE connects as a client
+ * and forwards its heartbeats, which the owner deduplicates and sends
+ * along with its own.
+ *
+ * Clients queue heartbeats for a sender thread which writes them to the
+ * owner, so a slow owner never holds up the EDT.
+ *
+ * The operating system releases the lock when the owner exits, even if it
+ * crashes. Its clients then see their connection close, and after
+ * HANDOFF_DELAY one of them takes the lock and becomes the new owner
+ * while the others connect to it. Heartbeats kept meanwhile go to
+ * whichever broker is found.
+ */
+public class Broker {
+
+    public static final int CONNECT_ATTEMPTS = 10;
+    public static final long CONNECT_RETRY = 200; // milliseconds between attempts to reach a starting owner
+    public static final int HANDSHAKE_TIMEOUT = 5; // seconds for a client to send its token
+    public static final long HANDOFF_DELAY = 1; // seconds before a client looks for a new owner
+    public static final int FORWARD_CAPACITY = 1000; // heartbeats waiting to be written to the owner
+
+    private static final String LOCK_FILE = "jetbrains-broker.lock";
+    private static final String INFO_FILE = "jetbrains-broker.properties";
+
+    // heartbeats the owner already accepted, so another IDE's copy is dropped,
+    // kept at the current heartbeat interval
+    private static final HeartbeatThrottle dedupe = new HeartbeatThrottle(WakaTime.FREQUENCY * 60 * 1000, HeartbeatThrottle.MAX_ENTRIES);
+    private static final LinkedBlockingQueue<Heartbeat> outgoing = new LinkedBlockingQueue<Heartbeat>(FORWARD_CAPACITY);
+
+    private static final CopyOnWriteArrayList<Socket> clients = new CopyOnWriteArrayList<Socket>();
+    private static RandomAccessFile lockFile;
+    private static FileLock lock;
+    private static volatile ServerSocket server;
+    private static String token;
+    private static volatile Socket connection;
+    private static volatile boolean stopped = false;
+
+    public static boolean isEnabled() {
+        return ConfigFile.get().getBoolean("settings", "broker", false);
+    }
+
+    public static File getDirectory() {
+        return new File(System.getProperty("user.home"), ".wakatime");
+    }
+
+    /**
+     * Becomes the owner if no other IDE is, otherwise connects to the
+     * owner. Returns true when connected as a client, false when this IDE
+     * should send its own heartbeats.
+     */
+    public static boolean start() {
+        stopped = false;
+        return join();
+    }
+
+    private static synchronized boolean join() {
+        if (stopped)
+            return false;
+        if (tryOwn())
+            return false;
+        if (connect())
+            return true;
+        WakaTime.log.warn("Unable to reach the WakaTime broker of another IDE, sending heartbeats directly");
+        return false;
+    }
+
+    public static synchronized void stop() {
+        stopped = true;
+        disconnect();
+        keepOutgoing();
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) { }
+            server = null;
+            for (Socket client : clients) {
+                close(client);
+            }
+            clients.clear();
+            new File(getDirectory(), INFO_FILE).delete();
+        }
+        if (lock != null) {
+            try {
+                lock.release();
+                lockFile.close();
+            } catch (IOException e) { }
+            lock = null;
+            lockFile = null;
+        }
+    }
+
+    public static boolean isOwner() {
+        return server != null;
+    }
+
+    public static boolean isClient() {
+        return connection != null;
+    }
+
+    public static int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Queues a heartbeat for the owner without blocking. Returns false
+     * when this IDE is not a client or FORWARD_CAPACITY heartbeats are
+     * already waiting, in which case the caller keeps the heartbeat.
+     */
+    public static boolean forward(Heartbeat heartbeat) {
+        if (connection == null)
+            return false;
+        return outgoing.offer(heartbeat);
+    }
+
+    /**
+     * Called by the owner for every heartbeat, its own and forwarded ones.
+     * Returns false for a heartbeat another IDE already sent.
+     */
+    public static boolean accept(Heartbeat heartbeat) {
+        if (server == null || heartbeat.isWrite())
+            return true;
+        dedupe.setInterval(WakaTime.throttle.getInterval());
+        if (dedupe.tryAcquire(String.valueOf(heartbeat.getKey()), heartbeat.getTimestamp()))
+            return true;
+        Metrics.deduplicated.incrementAndGet();
+        return false;
+    }
+
+    private static boolean tryOwn() {
+        File dir = getDirectory();
+        if (!dir.exists())
+            dir.mkdirs();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+            FileChannel channel = file.getChannel();
+            FileLock acquired;
+            try {
+                acquired = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                acquired = null;
+            }
+            if (acquired == null) {
+                file.close();
+                return false;
+            }
+            ServerSocket socket = new ServerSocket();
+            socket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            String newToken = UUID.randomUUID().toString();
+            writeInfo(socket.getLocalPort(), newToken);
+            lockFile = file;
+            lock = acquired;
+            server = socket;
+            token = newToken;
+        } catch (IOException e) {
+            WakaTime.log.warn("Unable to start the WakaTime broker: " + e);
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e1) { }
+            }
+            return false;
+        }
+        startThread("WakaTime broker", new Runnable() {
+            public void run() {
+                serve(server);
+            }
+        });
+        WakaTime.log.info("Started the WakaTime broker for other IDEs on port " + server.getLocalPort());
+        return true;
+    }
+
+    private static void serve(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            final Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                break;
+            }
+            startThread("WakaTime broker client", new Runnable() {
+                public void run() {
+                    receive(client);
+                }
+            });
+        }
+    }
+
+    private static void receive(Socket client) {
+        try {
+            client.setSoTimeout(HANDSHAKE_TIMEOUT * 1000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream reply = new DataOutputStream(client.getOutputStream());
+            if (!token.equals(in.readUTF())) {
+                WakaTime.log.warn("Rejected a WakaTime broker client with the wrong token");
+                return;
+            }
+            reply.writeBoolean(true);
+            reply.flush();
+            client.setSoTimeout(0);
+            clients.add(client);
+            WakaTime.log.debug("WakaTime broker client connected, " + clients.size() + " connected");
+            while (true) {
+                WakaTime.receiveHeartbeat(Heartbeat.read(in));
+            }
+        } catch (EOFException e) {
+            // client closed
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+        } finally {
+            clients.remove(client);
+            close(client);
+        }
+    }
+
+    private static boolean connect() {
+        for (int attempt = 0; attempt < CONNECT_ATTEMPTS && !stopped; attempt++) {
+            Properties info = readInfo();
+            if (info != null) {
+                Socket socket = new Socket();
+                try {
+                    int port = Integer.parseInt(info.getProperty("port"));
+                    socket.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), HANDSHAKE_TIMEOUT * 1000);
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT * 1000);
+                    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    output.writeUTF(info.getProperty("token", ""));
+                    output.flush();
+                    final DataInputStream in = new DataInputStream(socket.getInputStream());
+                    if (in.readBoolean()) {
+                        socket.setSoTimeout(0);
+                        synchronized (Broker.class) {
+                            connection = socket;
+                        }
+                        watch(socket, in);
+                        send(socket, output);
+                        WakaTime.log.info("Sending heartbeats through the WakaTime broker on port " + port);
+                        return true;
+                    }
+                } catch (IOException e) {
+                    WakaTime.log.debug(e);
+                } catch (NumberFormatException e) {
+                    WakaTime.log.debug(e);
+                }
+                close(socket);
+            }
+            // the owner may still be starting up
+            if (tryOwn())
+                return false;
+            try {
+                Thread.sleep(CONNECT_RETRY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // the owner never writes after the handshake, so a read returns only when it goes away
+    private static void watch(final Socket socket, final DataInputStream in) {
+        startThread("WakaTime broker connection", new Runnable() {
+            public void run() {
+                try {
+                    while (in.read() != -1) { }
+                } catch (IOException e) { }
+                if (connection == socket)
+                    lost();
+            }
+        });
+    }
+
+    // writes queued heartbeats to the owner until the connection goes away
+    private static void send(final Socket socket, final DataOutputStream output) {
+        startThread("WakaTime broker sender", new Runnable() {
+            public void run() {
+                while (connection == socket) {
+                    Heartbeat heartbeat;
+                    try {
+                        heartbeat = outgoing.poll(CONNECT_RETRY, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (heartbeat == null)
+                        continue;
+                    try {
+                        heartbeat.write(output);
+                        // one flush for whatever queued up meanwhile
+                        if (outgoing.isEmpty())
+                            output.flush();
+                        Metrics.forwarded.incrementAndGet();
+                    } catch (IOException e) {
+                        WakaTime.log.debug("Lost connection to the WakaTime broker: " + e);
+                        if (connection == socket)
+                            lost();
+                        WakaTime.receiveHeartbeat(heartbeat);
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    private static void lost() {
+        synchronized (Broker.class) {
+            if (connection == null || stopped)
+                return;
+            disconnect();
+        }
+        keepOutgoing();
+        WakaTime.log.info("The WakaTime broker went away, looking for a new one");
+        startThread("WakaTime broker handoff", new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(HANDOFF_DELAY * 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (join())
+                    WakaTime.brokerJoined();
+                else if (!stopped)
+                    WakaTime.brokerLost();
+            }
+        });
+    }
+
+    // hands heartbeats the owner never got back to WakaTime, which keeps them until there is a sender
+    private static void keepOutgoing() {
+        ArrayList<Heartbeat> unsent = new ArrayList<Heartbeat>();
+        outgoing.drainTo(unsent);
+        for (Heartbeat heartbeat : unsent) {
+            WakaTime.receiveHeartbeat(heartbeat);
+        }
+    }
+
+    private static void disconnect() {
+        Socket socket = connection;
+        connection = null;
+        if (socket != null)
+            close(socket);
+    }
+
+    private static void writeInfo(int port, String token) throws IOException {
+        File file = new File(getDirectory(), INFO_FILE);
+        File temp = new File(getDirectory(), INFO_FILE + ".tmp");
+        Properties props = new Properties();
+        props.setProperty("port", String.valueOf(port));
+        props.setProperty("token", token);
+        OutputStream output = new FileOutputStream(temp);
+        try {
+            // only this user may read the token
+            temp.setReadable(false, false);
+            temp.setReadable(true, true);
+            props.store(output, "WakaTime broker shared by JetBrains IDEs");
+        } finally {
+            output.close();
+        }
+        file.delete();
+        if (!temp.renameTo(file))
+            throw new IOException("Unable to write " + file);
+    }
+
+    private static Properties readInfo() {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(new File(getDirectory(), INFO_FILE));
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { }
+            }
+        }
+        return props.getProperty("port") == null ? null : props;
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) { }
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        Thread t = new Thread(runnable, name);
+        t.setDaemon(true);
+        t.start();
+    }
+}
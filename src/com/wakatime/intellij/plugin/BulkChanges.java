@@ -0,0 +1,193 @@
+/* ==========================================================
+File:        BulkChanges.java
+Description: Collapses mass edits into one heartbeat per project.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.ex.DocumentBulkUpdateListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.messages.MessageBusConnection;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A project-wide replace, a refactoring, a VCS update or saving all of
+ * those files changes many documents at once. While such a bulk phase
+ * lasts, changes and saves are only collected, and when it ends one
+ * heartbeat per project is sent for the last file changed in it, a write
+ * if any file was saved.
+ *
+ * A phase is a platform bulk document update, a VFS batch of at least
+ * BULK_THRESHOLD files, or a burst of changes moving between more than
+ * BULK_THRESHOLD documents within BULK_WINDOW, which catches refactorings
+ * and replaces that the platform does not flag. A burst ends once
+ * BULK_WINDOW passes without a change. Everything here runs on the EDT,
+ * where the platform delivers these events.
+ */
+public class BulkChanges {
+
+    public static final int BULK_THRESHOLD = 20; // documents changed at once before it counts as bulk
+    public static final int BULK_WINDOW = 1000; // milliseconds
+
+    private static int depth = 0;
+    private static boolean inVfsBatch = false;
+    private static boolean burst = false;
+    private static Timer burstEnd;
+    private static Document lastDocument;
+    private static long windowStart = 0;
+    private static int switches = 0;
+    // the project name, or "" for none, to what its bulk phase changed
+    private static final LinkedHashMap<String, Summary> collected = new LinkedHashMap<String, Summary>();
+
+    public static void setup(MessageBusConnection connection) {
+        connection.subscribe(DocumentBulkUpdateListener.TOPIC, new DocumentBulkUpdateListener() {
+            public void updateStarted(Document doc) {
+                begin();
+            }
+
+            public void updateFinished(Document doc) {
+                end();
+            }
+        });
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            public void before(List<? extends VFileEvent> events) {
+                if (events.size() >= BULK_THRESHOLD && !inVfsBatch) {
+                    inVfsBatch = true;
+                    begin();
+                }
+            }
+
+            public void after(List<? extends VFileEvent> events) {
+                if (inVfsBatch) {
+                    inVfsBatch = false;
+                    // documents of the changed files are reloaded after this event
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            end();
+                        }
+                    });
+                }
+            }
+        });
+        burstEnd = new Timer(BULK_WINDOW, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                burst = false;
+                if (depth == 0)
+                    flush();
+            }
+        });
+        burstEnd.setRepeats(false);
+    }
+
+    public static boolean isActive() {
+        return depth > 0 || burst;
+    }
+
+    /**
+     * Called for every document change or save. Returns true when the
+     * change is part of a bulk phase and was collected, in which case no
+     * heartbeat should be sent for it now.
+     */
+    public static boolean collect(Document document, boolean isWrite) {
+        if (document != lastDocument) {
+            // only moving to another document can start a burst, so typing costs one comparison
+            lastDocument = document;
+            long now = System.currentTimeMillis();
+            if (now - windowStart > BULK_WINDOW) {
+                windowStart = now;
+                switches = 0;
+            }
+            if (++switches > BULK_THRESHOLD && !burst && burstEnd != null) {
+                WakaTime.log.debug("Burst of changes to " + switches + " documents, collecting them into one heartbeat per project");
+                burst = true;
+            }
+        }
+        if (burst)
+            burstEnd.restart();
+        if (!isActive())
+            return false;
+        record(document, isWrite);
+        return true;
+    }
+
+    /**
+     * Sends what was collected, when the plugin is disposed during a bulk phase.
+     */
+    public static void stop() {
+        if (burstEnd != null)
+            burstEnd.stop();
+        depth = 0;
+        burst = false;
+        flush();
+    }
+
+    private static void begin() {
+        depth++;
+    }
+
+    private static void end() {
+        if (depth > 0)
+            depth--;
+        if (!isActive())
+            flush();
+    }
+
+    private static void record(Document document, boolean isWrite) {
+        VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        if (file == null || file.getUrl().startsWith("mock://"))
+            return;
+        String path = file.getPath();
+        if (!WakaTime.shouldLogFile(path)) {
+            Metrics.filtered.incrementAndGet();
+            return;
+        }
+        String project = ProjectResolver.getProjectName(file);
+        String key = project == null ? "" : project;
+        Summary summary = collected.get(key);
+        if (summary == null) {
+            summary = new Summary(project);
+            collected.put(key, summary);
+        }
+        summary.file = path;
+        summary.isWrite |= isWrite;
+        summary.changes++;
+    }
+
+    private static void flush() {
+        if (collected.isEmpty())
+            return;
+        long currentTime = System.currentTimeMillis();
+        for (Summary summary : collected.values()) {
+            WakaTime.log.debug("Bulk change of " + summary.changes + " edits in " + summary.project + ", sending one heartbeat");
+            Metrics.bulkChanges.addAndGet(summary.changes);
+            WakaTime.sendHeartbeat(summary.file, summary.project, summary.isWrite);
+            WakaTime.throttle.update(summary.file, currentTime);
+        }
+        collected.clear();
+    }
+
+    private static class Summary {
+        final String project;
+        String file;
+        boolean isWrite = false;
+        int changes = 0;
+
+        Summary(String project) {
+            this.project = project;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/* ==========================================================
+File:        CliOutput.java
+Description: Keeps the most recent output of wakatime-cli and python.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A fixed-size ring of the last CAPACITY lines printed by processes the
+ * plugin runs, shown in the WakaTime Diagnostics dialog. Older lines are
+ * overwritten, so a chatty or broken cli can not grow memory or flood
+ * idea.log.
+ */
+public class CliOutput {
+
+    public static final int CAPACITY = 500; // lines kept
+    public static final int MAX_LINE_LENGTH = 1000; // characters kept per line
+
+    private static final String[] lines = new String[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+    private static int next = 0;
+    private static long total = 0;
+
+    public static void add(String source, String line) {
+        if (line.length() > MAX_LINE_LENGTH)
+            line = line.substring(0, MAX_LINE_LENGTH) + "...";
+        String entry = "[" + source + "] " + line;
+        long now = System.currentTimeMillis();
+        synchronized (lines) {
+            lines[next] = entry;
+            times[next] = now;
+            next = (next + 1) % CAPACITY;
+            total++;
+        }
+    }
+
+    /**
+     * Returns the kept lines, oldest first.
+     */
+    public static String text() {
+        StringBuilder sb = new StringBuilder();
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        synchronized (lines) {
+            if (total > CAPACITY)
+                sb.append("(").append(total - CAPACITY).append(" older lines discarded)\n");
+            for (int i = 0; i < CAPACITY; i++) {
+                int index = (next + i) % CAPACITY;
+                if (lines[index] != null)
+                    sb.append(format.format(new Date(times[index]))).append(" ").append(lines[index]).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+}
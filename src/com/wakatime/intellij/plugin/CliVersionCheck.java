@@ -0,0 +1,161 @@
+/* ==========================================================
+File:        CliVersionCheck.java
+Description: Looks up the latest wakatime-cli version with caching.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The latest version is remembered for CACHE_TTL hours. After that it is
+ * fetched again with If-None-Match and If-Modified-Since, so an unchanged
+ * __about__.py costs a 304 response. The response is read line by line
+ * only until the __version_info__ line. The url can be changed with
+ * cli_version_url in the [settings] section of ~/.wakatime.cfg.
+ */
+public class CliVersionCheck {
+
+    public static final String DEFAULT_URL = "https://raw.githubusercontent.com/wakatime/wakatime/master/wakatime/__about__.py";
+    public static final long CACHE_TTL = 12; // hours before asking the server again
+    public static final int TIMEOUT = 30; // seconds for connecting and reading
+    public static final String UNKNOWN = "Unknown";
+
+    private static final String CACHE_FILE = "cli-version.properties";
+    private static final Pattern VERSION_INFO = Pattern.compile("__version_info__ = \\('([0-9]+)', '([0-9]+)', '([0-9]+)'\\)");
+
+    public static String getUrl() {
+        return ConfigFile.get().getString("settings", "cli_version_url", DEFAULT_URL);
+    }
+
+    public static String latestVersion() {
+        String url = getUrl();
+        Properties cache = load();
+        String cachedVersion = url.equals(cache.getProperty("url")) ? cache.getProperty("version") : null;
+        long checkedAt = 0;
+        try {
+            checkedAt = Long.parseLong(cache.getProperty("checked", "0"));
+        } catch (NumberFormatException e) { }
+        if (cachedVersion != null && checkedAt + CACHE_TTL * 60 * 60 * 1000 > System.currentTimeMillis()) {
+            return cachedVersion;
+        }
+        try {
+            return fetch(url, cache, cachedVersion, false);
+        } catch (RuntimeException e) {
+            WakaTime.log.error(e);
+            try {
+                // try without verifying SSL cert (https://github.com/wakatime/jetbrains-wakatime/issues/46)
+                return fetch(url, cache, cachedVersion, true);
+            } catch (Exception e1) {
+                WakaTime.log.error(e1);
+            }
+        } catch (IOException e) {
+            WakaTime.log.error(e);
+        }
+        return cachedVersion != null ? cachedVersion : UNKNOWN;
+    }
+
+    private static String fetch(String url, Properties cache, String cachedVersion, boolean trustAll) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (trustAll && conn instanceof HttpsURLConnection)
+            ((HttpsURLConnection) conn).setSSLSocketFactory(Dependencies.getTrustAllSocketFactory());
+        conn.setConnectTimeout(TIMEOUT * 1000);
+        conn.setReadTimeout(TIMEOUT * 1000);
+        if (cachedVersion != null) {
+            if (cache.getProperty("etag") != null)
+                conn.setRequestProperty("If-None-Match", cache.getProperty("etag"));
+            if (cache.getProperty("modified") != null)
+                conn.setRequestProperty("If-Modified-Since", cache.getProperty("modified"));
+        }
+        try {
+            int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cachedVersion != null) {
+                WakaTime.log.debug("wakatime-cli version unchanged since last check");
+                save(cache, url, cachedVersion, conn);
+                return cachedVersion;
+            }
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Unexpected response " + status + " from " + url);
+            String version = readVersion(conn.getInputStream());
+            if (version == null)
+                return cachedVersion != null ? cachedVersion : UNKNOWN;
+            cache.remove("etag");
+            cache.remove("modified");
+            save(cache, url, version, conn);
+            return version;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static String readVersion(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = VERSION_INFO.matcher(line);
+                if (m.find())
+                    return m.group(1) + "." + m.group(2) + "." + m.group(3);
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static File cacheFile() {
+        return new File(Dependencies.getResourcesLocation(), CACHE_FILE);
+    }
+
+    private static Properties load() {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(cacheFile());
+            props.load(in);
+        } catch (IOException e) {
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { }
+            }
+        }
+        return props;
+    }
+
+    private static void save(Properties props, String url, String version, HttpURLConnection conn) {
+        props.setProperty("url", url);
+        props.setProperty("version", version);
+        props.setProperty("checked", String.valueOf(System.currentTimeMillis()));
+        if (conn.getHeaderField("ETag") != null)
+            props.setProperty("etag", conn.getHeaderField("ETag"));
+        if (conn.getHeaderField("Last-Modified") != null)
+            props.setProperty("modified", conn.getHeaderField("Last-Modified"));
+        File file = cacheFile();
+        if (!file.getParentFile().exists())
+            file.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            props.store(out, "latest wakatime-cli version");
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+}
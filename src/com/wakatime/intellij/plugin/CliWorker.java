@@ -0,0 +1,254 @@
+/* ==========================================================
+File:        CliWorker.java
+Description: Supervises a long-lived wakatime-cli worker process.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one wakatime-cli process running so heartbeats do not pay python
+ * startup each time. Requests are written to the worker's stdin one per
+ * line and the worker answers each with one line on stdout: "ping" is
+ * answered with "pong", and a JSON object {"argv": [...], "stdin": "..."}
+ * is answered with the exit code of running cli.py with those arguments,
+ * or with "error" when the worker itself could not run the cli. Any
+ * program speaking this protocol can be used, see wakatime-worker.py.
+ */
+public class CliWorker {
+
+    public static final long HANDSHAKE_TIMEOUT = 10; // seconds to wait for a new worker to answer ping
+    public static final long RESPONSE_TIMEOUT = 60; // seconds to wait for a heartbeat to be sent
+    public static final long IDLE_TIMEOUT = 5; // minutes before an unused worker is stopped
+    public static final int MAX_RESTARTS = 3; // crashes in a row before falling back for a while
+    public static final long RESTART_BACKOFF = 10; // minutes to wait after too many crashes
+    public static final long EXIT_TIMEOUT = 1000; // milliseconds for a stopped worker to exit before it is killed
+
+    private final String[] command;
+    private Process process;
+    private Writer stdin;
+    private Responses responses;
+    private long lastUsed = 0;
+    private int crashes = 0;
+    private long disabledUntil = 0;
+
+    public CliWorker(String[] command) {
+        this.command = command;
+    }
+
+    /**
+     * Runs wakatime-cli in the worker with the given arguments, which
+     * should not include the python binary or cli.py location. Returns
+     * the cli exit code, or null when the worker is unavailable and the
+     * caller should fall back to spawning cli.py itself.
+     */
+    public synchronized Integer send(String[] args, String input) {
+        if (!ensureStarted())
+            return null;
+        lastUsed = System.currentTimeMillis();
+        String response = request(toRequest(args, input), RESPONSE_TIMEOUT);
+        if (response == null) {
+            crashed();
+            return null;
+        }
+        if ("error".equals(response.trim())) {
+            // not a cli exit code, so the heartbeat must not count as sent
+            WakaTime.log.warn("wakatime-cli worker failed to run the cli, see its output");
+            crashed();
+            return null;
+        }
+        try {
+            Integer exitCode = Integer.valueOf(response.trim());
+            crashes = 0;
+            return exitCode;
+        } catch (NumberFormatException e) {
+            WakaTime.log.warn("Unexpected response from wakatime-cli worker: " + response);
+            crashed();
+            return null;
+        }
+    }
+
+    /**
+     * Stops the worker when it has been idle too long, otherwise makes
+     * sure it still answers. Called periodically from the heartbeat
+     * scheduler.
+     */
+    public synchronized void checkHealth() {
+        if (process == null)
+            return;
+        if (lastUsed + IDLE_TIMEOUT * 60 * 1000 < System.currentTimeMillis()) {
+            WakaTime.log.debug("Stopping idle wakatime-cli worker");
+            stop();
+            return;
+        }
+        if (!"pong".equals(request("ping", HANDSHAKE_TIMEOUT))) {
+            WakaTime.log.debug("wakatime-cli worker stopped responding");
+            crashed();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return process != null;
+    }
+
+    public synchronized void stop() {
+        if (process == null)
+            return;
+        try {
+            // the worker exits by itself once stdin is closed
+            stdin.close();
+        } catch (IOException e) { }
+        try {
+            // destroy() is only SIGTERM, which a worker stuck in the cli may never act on
+            if (!process.waitFor(EXIT_TIMEOUT, TimeUnit.MILLISECONDS))
+                process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        process = null;
+        stdin = null;
+        responses = null;
+    }
+
+    private boolean ensureStarted() {
+        if (process != null && !responses.closed)
+            return true;
+        if (process != null)
+            crashed();
+        if (System.currentTimeMillis() < disabledUntil)
+            return false;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+            process = null;
+            crashed();
+            return false;
+        }
+        try {
+            stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+            responses = new Responses(process.getInputStream());
+        } catch (UnsupportedEncodingException e) {
+            WakaTime.log.error(e);
+        }
+        drain(process.getErrorStream());
+        if (!"pong".equals(request("ping", HANDSHAKE_TIMEOUT))) {
+            WakaTime.log.debug("wakatime-cli worker did not start");
+            crashed();
+            return false;
+        }
+        lastUsed = System.currentTimeMillis();
+        WakaTime.log.debug("Started wakatime-cli worker");
+        return true;
+    }
+
+    private String request(String line, long timeout) {
+        try {
+            stdin.write(line);
+            stdin.write("\n");
+            stdin.flush();
+            return responses.next(timeout);
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private void crashed() {
+        stop();
+        Metrics.workerCrashes.incrementAndGet();
+        crashes++;
+        if (crashes >= MAX_RESTARTS) {
+            WakaTime.log.warn("wakatime-cli worker failed " + crashes + " times, spawning cli.py per heartbeat for " + RESTART_BACKOFF + " minutes");
+            disabledUntil = System.currentTimeMillis() + RESTART_BACKOFF * 60 * 1000;
+            crashes = 0;
+        }
+    }
+
+    private static String toRequest(String[] args, String input) {
+        StringBuilder sb = new StringBuilder("{\"argv\":[");
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append("\"").append(Heartbeat.jsonEscape(args[i])).append("\"");
+        }
+        sb.append("]");
+        if (input != null) {
+            sb.append(",\"stdin\":\"").append(Heartbeat.jsonEscape(input)).append("\"");
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
+    private static void drain(final InputStream stream) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+                    String s;
+                    while ((s = reader.readLine()) != null) {
+                        CliOutput.add("worker", s);
+                    }
+                    reader.close();
+                } catch (IOException e) { }
+            }
+        }, "WakaTime worker stderr");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Reads response lines from the worker's stdout on a background thread
+     * so a hung worker can be detected with a timeout.
+     */
+    private static class Responses implements Runnable {
+        private final BufferedReader reader;
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+        private volatile boolean closed = false;
+
+        Responses(InputStream stream) throws UnsupportedEncodingException {
+            reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+            Thread t = new Thread(this, "WakaTime worker stdout");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        public void run() {
+            try {
+                String s;
+                while ((s = reader.readLine()) != null) {
+                    lines.add(s);
+                }
+            } catch (IOException e) {
+            } finally {
+                closed = true;
+                try {
+                    reader.close();
+                } catch (IOException e) { }
+            }
+        }
+
+        String next(long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout * 1000;
+            while (true) {
+                String line = lines.poll(100, TimeUnit.MILLISECONDS);
+                if (line != null)
+                    return line;
+                if (closed && lines.isEmpty())
+                    return null;
+                if (System.currentTimeMillis() > deadline)
+                    return null;
+            }
+        }
+    }
+}
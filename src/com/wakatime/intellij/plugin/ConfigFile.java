@@ -0,0 +1,291 @@
+/* ==========================================================
+File:        ConfigFile.java
+Description: Parsed snapshot of the ~/.wakatime.cfg config file.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable parse of the INI config file shared with wakatime-cli.
+ * The current snapshot is loaded once and replaced whenever the file is
+ * written by the plugin or changed by someone else while being watched,
+ * so reading a setting is a volatile read. Section and key names are
+ * case-insensitive like python's ConfigParser.
+ */
+public class ConfigFile {
+
+    private static volatile ConfigFile current;
+    private static Thread watcher;
+
+    private final Map<String, Map<String, String>> sections;
+
+    private ConfigFile(Map<String, Map<String, String>> sections) {
+        this.sections = sections;
+    }
+
+    public static File getFile() {
+        return new File(System.getProperty("user.home"), WakaTime.CONFIG);
+    }
+
+    public static ConfigFile get() {
+        ConfigFile config = current;
+        if (config == null) {
+            synchronized (ConfigFile.class) {
+                config = current;
+                if (config == null) {
+                    config = load(getFile());
+                    current = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    public static void reload() {
+        current = load(getFile());
+        WakaTime.log.debug("Reloaded " + getFile());
+    }
+
+    public String getString(String section, String key, String defaultValue) {
+        Map<String, String> values = sections.get(section.toLowerCase());
+        if (values == null)
+            return defaultValue;
+        String value = values.get(key.toLowerCase());
+        return value == null ? defaultValue : value;
+    }
+
+    public String getString(String section, String key) {
+        return getString(section, key, null);
+    }
+
+    /**
+     * Returns true when the section exists and holds at least one key.
+     */
+    public boolean hasSection(String section) {
+        Map<String, String> values = sections.get(section.toLowerCase());
+        return values != null && !values.isEmpty();
+    }
+
+    public boolean getBoolean(String section, String key, boolean defaultValue) {
+        String value = getString(section, key);
+        if (value == null)
+            return defaultValue;
+        value = value.toLowerCase();
+        if (value.equals("true") || value.equals("yes") || value.equals("on") || value.equals("1"))
+            return true;
+        if (value.equals("false") || value.equals("no") || value.equals("off") || value.equals("0"))
+            return false;
+        return defaultValue;
+    }
+
+    public long getLong(String section, String key, long defaultValue) {
+        String value = getString(section, key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Writes a single setting, keeping every other line of the file as it
+     * was, and swaps in the new snapshot.
+     */
+    public static synchronized void set(String section, String key, String value) {
+        File configFile = getFile();
+        List<String> lines = readLines(configFile);
+        ArrayList<String> output = new ArrayList<String>();
+        String currentSection = null;
+        boolean sectionFound = false;
+        boolean written = false;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+                if (!written && section.equalsIgnoreCase(currentSection)) {
+                    output.add(key + " = " + value);
+                    written = true;
+                }
+                currentSection = trimmed.substring(1, trimmed.length() - 1).trim();
+                if (section.equalsIgnoreCase(currentSection))
+                    sectionFound = true;
+            } else if (!written && section.equalsIgnoreCase(currentSection) && key.equalsIgnoreCase(parseKey(trimmed))) {
+                output.add(key + " = " + value);
+                written = true;
+                continue;
+            }
+            output.add(line);
+        }
+        if (!written) {
+            if (!sectionFound)
+                output.add("[" + section + "]");
+            output.add(key + " = " + value);
+        }
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(configFile.getAbsolutePath(), "UTF-8");
+            for (String line : output) {
+                writer.print(line + "\n");
+            }
+        } catch (FileNotFoundException e) {
+            WakaTime.log.error(e);
+        } catch (UnsupportedEncodingException e) {
+            WakaTime.log.error(e);
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+        current = parse(output);
+    }
+
+    /**
+     * Starts a background thread which reloads the snapshot whenever the
+     * config file is created, changed or deleted.
+     */
+    public static synchronized void watch() {
+        if (watcher != null)
+            return;
+        final File configFile = getFile();
+        final WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            configFile.getAbsoluteFile().getParentFile().toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            WakaTime.log.warn("Unable to watch " + configFile + " for changes: " + e);
+            return;
+        }
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        WatchKey key = watchService.take();
+                        boolean changed = false;
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            Object context = event.context();
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                    || (context != null && context.toString().equals(configFile.getName()))) {
+                                changed = true;
+                            }
+                        }
+                        if (changed)
+                            reload();
+                        if (!key.reset())
+                            break;
+                    }
+                } catch (InterruptedException e) {
+                } catch (ClosedWatchServiceException e) {
+                } finally {
+                    try {
+                        watchService.close();
+                    } catch (IOException e) { }
+                }
+            }
+        }, "WakaTime config watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public static synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    private static ConfigFile load(File configFile) {
+        return parse(readLines(configFile));
+    }
+
+    private static List<String> readLines(File configFile) {
+        ArrayList<String> lines = new ArrayList<String>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(configFile), "UTF-8"));
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
+            WakaTime.log.warn(e);
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException e) { }
+            }
+        }
+        return lines;
+    }
+
+    private static ConfigFile parse(List<String> lines) {
+        Map<String, Map<String, String>> sections = new HashMap<String, Map<String, String>>();
+        Map<String, String> values = null;
+        String lastKey = null;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith(";")) {
+                continue;
+            }
+            if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+                String name = trimmed.substring(1, trimmed.length() - 1).trim().toLowerCase();
+                values = sections.get(name);
+                if (values == null) {
+                    values = new HashMap<String, String>();
+                    sections.put(name, values);
+                }
+                lastKey = null;
+                continue;
+            }
+            if (values == null)
+                continue;
+            if (Character.isWhitespace(line.charAt(0)) && lastKey != null) {
+                // indented lines continue the previous value
+                values.put(lastKey, values.get(lastKey) + "\n" + trimmed);
+                continue;
+            }
+            String key = parseKey(trimmed);
+            if (key == null)
+                continue;
+            int separator = separatorIndex(trimmed);
+            lastKey = key.toLowerCase();
+            values.put(lastKey, trimmed.substring(separator + 1).trim());
+        }
+        for (Map.Entry<String, Map<String, String>> section : sections.entrySet()) {
+            section.setValue(Collections.unmodifiableMap(section.getValue()));
+        }
+        return new ConfigFile(Collections.unmodifiableMap(sections));
+    }
+
+    private static String parseKey(String line) {
+        int separator = separatorIndex(line);
+        if (separator <= 0)
+            return null;
+        return line.substring(0, separator).trim();
+    }
+
+    private static int separatorIndex(String line) {
+        int equals = line.indexOf('=');
+        int colon = line.indexOf(':');
+        if (equals < 0)
+            return colon;
+        if (colon < 0)
+            return equals;
+        return Math.min(equals, colon);
+    }
+}
@@ -8,30 +8,77 @@ Website:     https://wakatime.com/
 
 package com.wakatime.intellij.plugin;
 
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.event.DocumentListener;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
 
 public class CustomDocumentListener implements DocumentListener {
+
+    // earliest time in milliseconds the document is worth looking at again,
+    // then whether its file was excluded, only touched from the EDT
+    static final Key<long[]> NEXT_HEARTBEAT = Key.create("WakaTime.nextHeartbeat");
+    private static final int NEXT = 0;
+    private static final int EXCLUDED = 1;
+
     @Override
     public void beforeDocumentChange(DocumentEvent documentEvent) {
     }
 
     @Override
     public void documentChanged(DocumentEvent documentEvent) {
-        final FileDocumentManager instance = FileDocumentManager.getInstance();
-        final VirtualFile file = instance.getFile(documentEvent.getDocument());
-        if (file != null && !file.getUrl().startsWith("mock://")) {
-            final String currentFile = file.getPath();
-            if (WakaTime.shouldLogFile(currentFile)) {
-                final long currentTime = System.currentTimeMillis() / 1000;
-                if (!currentFile.equals(WakaTime.lastFile) || WakaTime.enoughTimePassed(currentTime)) {
-                    WakaTime.sendHeartbeat(currentFile, false);
-                    WakaTime.lastFile = currentFile;
-                    WakaTime.lastTime = currentTime;
-                }
-            }
+        if (BulkChanges.collect(documentEvent.getDocument(), false))
+            return;
+        if (ActivitySampler.isRunning()) {
+            ActivitySampler.documentChanged(documentEvent.getDocument());
+            return;
+        }
+        documentActive(documentEvent.getDocument());
+    }
+
+    /**
+     * Sends a heartbeat for the document if one is due. Called for every
+     * keystroke, or once per sample with the ActivitySampler, so return
+     * early without allocating until a heartbeat could be due.
+     */
+    static void documentActive(Document document) {
+        final long currentTime = System.currentTimeMillis();
+        long[] next = document.getUserData(NEXT_HEARTBEAT);
+        if (next != null && currentTime < next[NEXT]) {
+            // keystrokes in an excluded file are filtered whether or not a heartbeat is due
+            if (next[EXCLUDED] != 0)
+                Metrics.filtered.incrementAndGet();
+            else
+                Metrics.throttled.incrementAndGet();
+            return;
+        }
+        if (next == null) {
+            next = new long[2];
+            document.putUserData(NEXT_HEARTBEAT, next);
+        }
+        next[EXCLUDED] = 0;
+        next[NEXT] = checkDocument(document, currentTime, next);
+    }
+
+    private static long checkDocument(Document document, long currentTime, long[] next) {
+        final long retry = currentTime + WakaTime.throttle.getInterval();
+        final VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        if (file == null || file.getUrl().startsWith("mock://"))
+            return retry;
+        final String currentFile = file.getPath();
+        if (!WakaTime.shouldLogFile(currentFile)) {
+            Metrics.filtered.incrementAndGet();
+            next[EXCLUDED] = 1;
+            return retry;
+        }
+        if (WakaTime.enoughTimePassed(currentFile, currentTime)) {
+            WakaTime.sendHeartbeat(currentFile, ProjectResolver.getProjectName(file), false);
+            return retry;
         }
+        // throttled by a heartbeat sent for the same file some other way
+        Metrics.throttled.incrementAndGet();
+        return WakaTime.throttle.nextEligibleTime(currentFile);
     }
-}
\ No newline at end of file
+}
@@ -11,17 +11,32 @@ package com.wakatime.intellij.plugin;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileDocumentManagerAdapter;
+import com.intellij.openapi.vfs.VirtualFile;
 
 public class CustomSaveListener extends FileDocumentManagerAdapter {
 
     @Override
     public void beforeDocumentSaving(Document document) {
-        String currentFile = FileDocumentManager.getInstance().getFile(document).getPath();
+        if (BulkChanges.collect(document, true))
+            return;
+        if (ActivitySampler.isRunning()) {
+            ActivitySampler.documentSaved(document);
+            return;
+        }
+        documentSaved(document);
+    }
+
+    static void documentSaved(Document document) {
+        VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        if (file == null)
+            return;
+        String currentFile = file.getPath();
         if (WakaTime.shouldLogFile(currentFile)) {
-            long currentTime = System.currentTimeMillis() / 1000;
-            WakaTime.sendHeartbeat(currentFile, true);
-            WakaTime.lastFile = currentFile;
-            WakaTime.lastTime = currentTime;
+            long currentTime = System.currentTimeMillis();
+            WakaTime.sendHeartbeat(currentFile, ProjectResolver.getProjectName(file), true);
+            WakaTime.throttle.update(currentFile, currentTime);
+        } else {
+            Metrics.filtered.incrementAndGet();
         }
     }
 }
\ No newline at end of file
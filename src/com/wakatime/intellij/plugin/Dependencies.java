@@ -13,22 +13,38 @@ import com.sun.jna.platform.win32.WinReg;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Enumeration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class Dependencies {
 
+    public static final int UNZIP_THREADS = 4; // entries extracted at once
+    public static final int UNZIP_BUFFER = 64 * 1024; // bytes
+    // sha256 of python-3.5.0-embed-win32.zip and -amd64.zip, taken from the release files since python.org
+    // lists only md5 sums for 3.5.0; null until pinned, which downloads unchecked with a warning
+    public static final String PYTHON_WIN32_SHA256 = null;
+    public static final String PYTHON_AMD64_SHA256 = null;
+
     private static String pythonLocation = null;
     private static String resourcesLocation = null;
 
@@ -54,50 +70,7 @@ public class Dependencies {
     public static String getPythonLocation() {
         if (Dependencies.pythonLocation != null)
             return Dependencies.pythonLocation;
-        ArrayList<String> paths = new ArrayList<String>();
-        paths.add(null);
-        paths.add("/");
-        paths.add("/usr/local/bin/");
-        paths.add("/usr/bin/");
-        if (System.getProperty("os.name").contains("Windows")) {
-            File resourcesLocation = new File(Dependencies.getResourcesLocation());
-            paths.add(combinePaths(resourcesLocation.getAbsolutePath(), "python"));
-            paths.add(getPythonFromRegistry(WinReg.HKEY_CURRENT_USER));
-            paths.add(getPythonFromRegistry(WinReg.HKEY_LOCAL_MACHINE));
-            paths.add("/python39");
-            paths.add("/Python39");
-            paths.add("/python38");
-            paths.add("/Python38");
-            paths.add("/python37");
-            paths.add("/Python37");
-            paths.add("/python36");
-            paths.add("/Python36");
-            paths.add("/python35");
-            paths.add("/Python35");
-            paths.add("/python34");
-            paths.add("/Python34");
-            paths.add("/python33");
-            paths.add("/Python33");
-            paths.add("/python27");
-            paths.add("/Python27");
-            paths.add("/python26");
-            paths.add("/Python26");
-        }
-        for (String path : paths) {
-            try {
-                String[] cmds = {combinePaths(path, "pythonw"), "--version"};
-                Runtime.getRuntime().exec(cmds);
-                Dependencies.pythonLocation = combinePaths(path, "pythonw");
-                break;
-            } catch (Exception e) {
-                try {
-                    String[] cmds = {combinePaths(path, "python"), "--version"};
-                    Runtime.getRuntime().exec(cmds);
-                    Dependencies.pythonLocation = combinePaths(path, "python");
-                    break;
-                } catch (Exception e2) { }
-            }
-        }
+        Dependencies.pythonLocation = PythonLocator.find();
         if (Dependencies.pythonLocation != null) {
             WakaTime.log.debug("Found python binary: " + Dependencies.pythonLocation);
         } else {
@@ -139,6 +112,7 @@ public class Dependencies {
 
     public static boolean isCLIInstalled() {
         File cli = new File(Dependencies.getCLILocation());
+        recoverInterruptedReplace(cli.getParentFile().getParentFile());
         WakaTime.log.debug("WakaTime Core Location: " + cli.getAbsolutePath());
         WakaTime.log.debug("WakaTime Core Exists: " + cli.exists());
         return cli.exists();
@@ -153,24 +127,12 @@ public class Dependencies {
         cmds.add(Dependencies.getCLILocation());
         cmds.add("--version");
         try {
-            Process p = Runtime.getRuntime().exec(cmds.toArray(new String[cmds.size()]));
-            BufferedReader stdInput = new BufferedReader(new
-                    InputStreamReader(p.getInputStream()));
-            BufferedReader stdError = new BufferedReader(new
-                    InputStreamReader(p.getErrorStream()));
-            p.waitFor();
-            String output = "";
-            String s;
-            while ((s = stdInput.readLine()) != null) {
-                output += s;
-            }
-            while ((s = stdError.readLine()) != null) {
-                output += s;
-            }
+            ProcessRunner.Result result = ProcessRunner.run(cmds.toArray(new String[cmds.size()]), null, WakaTime.CLI_TIMEOUT, "wakatime-cli");
+            String output = result.output.trim();
             WakaTime.log.debug("wakatime cli version check output: \"" + output + "\"");
-            WakaTime.log.debug("wakatime cli version check exit code: " + p.exitValue());
+            WakaTime.log.debug("wakatime cli version check exit code: " + result.exitCode);
 
-            if (p.exitValue() == 0) {
+            if (result.exitCode != null && result.exitCode == 0) {
                 String cliVersion = latestCliVersion();
                 WakaTime.log.debug("Current cli version from GitHub: " + cliVersion);
                 if (output.contains(cliVersion))
@@ -181,44 +143,89 @@ public class Dependencies {
     }
 
     public static String latestCliVersion() {
-        String url = "https://raw.githubusercontent.com/wakatime/wakatime/master/wakatime/__about__.py";
-        String aboutText = getUrlAsString(url);
-        Pattern p = Pattern.compile("__version_info__ = \\('([0-9]+)', '([0-9]+)', '([0-9]+)'\\)");
-        Matcher m = p.matcher(aboutText);
-        if (m.find()) {
-            return m.group(1) + "." + m.group(2) + "." + m.group(3);
-        }
-        return "Unknown";
+        return CliVersionCheck.latestVersion();
     }
 
     public static String getCLILocation() {
         return combinePaths(Dependencies.getResourcesLocation(), "wakatime-master", "wakatime", "cli.py");
     }
 
+    public static String getJournalLocation() {
+        return combinePaths(Dependencies.getResourcesLocation(), "journal");
+    }
+
+    public static String getWorkerLocation() {
+        return combinePaths(Dependencies.getResourcesLocation(), "wakatime-worker.py");
+    }
+
+    public static String[] getWorkerCommand() {
+        File cli = new File(Dependencies.getCLILocation());
+        return new String[] {
+                Dependencies.getPythonLocation(),
+                Dependencies.getWorkerLocation(),
+                cli.getParentFile().getParentFile().getAbsolutePath(),
+        };
+    }
+
+    public static void installWorker() {
+        InputStream inputStream = Dependencies.class.getResourceAsStream("wakatime-worker.py");
+        if (inputStream == null) {
+            WakaTime.log.warn("Missing wakatime-worker.py resource.");
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            File worker = new File(Dependencies.getWorkerLocation());
+            if (!worker.getParentFile().exists())
+                worker.getParentFile().mkdirs();
+            fos = new FileOutputStream(worker);
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                fos.write(buffer, 0, len);
+            }
+        } catch (IOException e) {
+            WakaTime.log.error(e);
+        } finally {
+            try {
+                inputStream.close();
+                if (fos != null)
+                    fos.close();
+            } catch (IOException e) { }
+        }
+    }
+
     public static void installCLI() {
         File cli = new File(Dependencies.getCLILocation());
-        if (!cli.getParentFile().getParentFile().getParentFile().exists())
-            cli.getParentFile().getParentFile().getParentFile().mkdirs();
+        File installDir = cli.getParentFile().getParentFile();
+        File resourcesDir = installDir.getParentFile();
+        if (!resourcesDir.exists())
+            resourcesDir.mkdirs();
 
         String url = "https://codeload.github.com/wakatime/wakatime/zip/master";
-        String zipFile = combinePaths(cli.getParentFile().getParentFile().getParentFile().getAbsolutePath(), "wakatime-cli.zip");
-        File outputDir = cli.getParentFile().getParentFile().getParentFile();
+        File zipFile = new File(resourcesDir, "wakatime-cli.zip");
+        File stagingDir = new File(resourcesDir, "wakatime-cli.staging");
 
-        // Delete old wakatime-master directory if it exists
-        File dir = cli.getParentFile().getParentFile();
-        if (dir.exists()) {
-            deleteDirectory(dir);
-        }
-
-        // download wakatime-master.zip file
-        if (downloadFile(url, zipFile)) {
-            try {
-                Dependencies.unzip(zipFile, outputDir);
-                File oldZipFile = new File(zipFile);
-                oldZipFile.delete();
-            } catch (IOException e) {
-                WakaTime.log.error(e);
+        // download wakatime-master.zip file, the installed cli keeps working until it is replaced;
+        // there is no digest to check since master changes with every commit
+        if (!downloadFile(url, zipFile.getAbsolutePath()))
+            return;
+        try {
+            if (stagingDir.exists())
+                deleteDirectory(stagingDir);
+            Dependencies.unzip(zipFile.getAbsolutePath(), stagingDir);
+            File stagedDir = new File(stagingDir, installDir.getName());
+            if (!new File(new File(stagedDir, cli.getParentFile().getName()), cli.getName()).isFile()) {
+                WakaTime.log.error("Downloaded wakatime-cli is missing " + cli.getName() + ", keeping the installed version.");
+                return;
             }
+            replaceDirectory(stagedDir, installDir);
+        } catch (IOException e) {
+            WakaTime.log.error(e);
+        } finally {
+            zipFile.delete();
+            if (stagingDir.exists())
+                deleteDirectory(stagingDir);
         }
     }
 
@@ -233,74 +240,77 @@ public class Dependencies {
             if (is64bit()) arch = "amd64";
             String url = "https://www.python.org/ftp/python/" + pyVer + "/python-" + pyVer + "-embed-" + arch + ".zip";
 
+            String sha256 = is64bit() ? PYTHON_AMD64_SHA256 : PYTHON_WIN32_SHA256;
+            if (sha256 == null)
+                WakaTime.log.warn("No sha256 pinned for " + url + ", its download is not checked");
+
             File dir = new File(Dependencies.getResourcesLocation());
             File zipFile = new File(combinePaths(dir.getAbsolutePath(), "python.zip"));
-            if (downloadFile(url, zipFile.getAbsolutePath())) {
+            if (downloadFile(url, zipFile.getAbsolutePath(), sha256)) {
 
                 File targetDir = new File(combinePaths(dir.getAbsolutePath(), "python"));
+                File stagingDir = new File(combinePaths(dir.getAbsolutePath(), "python.staging"));
 
                 // extract python
                 try {
-                    Dependencies.unzip(zipFile.getAbsolutePath(), targetDir);
+                    if (stagingDir.exists())
+                        deleteDirectory(stagingDir);
+                    Dependencies.unzip(zipFile.getAbsolutePath(), stagingDir);
+                    replaceDirectory(stagingDir, targetDir);
                 } catch (IOException e) {
                     WakaTime.log.error(e);
+                    if (stagingDir.exists())
+                        deleteDirectory(stagingDir);
                 }
                 zipFile.delete();
             }
         }
     }
 
-    public static boolean downloadFile(String url, String saveAs) {
-        File outFile = new File(saveAs);
-
-        // create output directory if does not exist
-        File outDir = outFile.getParentFile();
-        if (!outDir.exists())
-            outDir.mkdirs();
-
-        URL downloadUrl = null;
+    /**
+     * Swaps a fully extracted directory into place with renames, so the
+     * target is never missing except between two renames. A crash between
+     * them is undone by {@link #recoverInterruptedReplace}.
+     */
+    private static void replaceDirectory(File source, File target) throws IOException {
+        File backup = new File(target.getParentFile(), target.getName() + ".old");
+        if (backup.exists())
+            deleteDirectory(backup);
+        if (target.exists())
+            Files.move(target.toPath(), backup.toPath(), StandardCopyOption.ATOMIC_MOVE);
         try {
-            downloadUrl = new URL(url);
-        } catch (MalformedURLException e) { }
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (backup.exists())
+                Files.move(backup.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            throw e;
+        }
+        if (backup.exists())
+            deleteDirectory(backup);
+    }
 
-        ReadableByteChannel rbc = null;
-        FileOutputStream fos = null;
+    private static void recoverInterruptedReplace(File target) {
+        File backup = new File(target.getParentFile(), target.getName() + ".old");
+        if (target.exists() || !backup.exists())
+            return;
         try {
-            rbc = Channels.newChannel(downloadUrl.openStream());
-            fos = new FileOutputStream(saveAs);
-            fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-            fos.close();
-            return true;
-        } catch (RuntimeException e) {
-            WakaTime.log.error(e);
-            try {
-                // try downloading without verifying SSL cert (https://github.com/wakatime/jetbrains-wakatime/issues/46)
-                SSLContext SSL_CONTEXT = SSLContext.getInstance("SSL");
-                SSL_CONTEXT.init(null, new TrustManager[] { new LocalSSLTrustManager() }, null);
-                HttpsURLConnection.setDefaultSSLSocketFactory(SSL_CONTEXT.getSocketFactory());
-                HttpsURLConnection conn = (HttpsURLConnection)downloadUrl.openConnection();
-                InputStream inputStream = conn.getInputStream();
-                fos = new FileOutputStream(saveAs);
-                int bytesRead = -1;
-                byte[] buffer = new byte[4096];
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                }
-                inputStream.close();
-                fos.close();
-                return true;
-            } catch (NoSuchAlgorithmException e1) {
-                WakaTime.log.error(e1);
-            } catch (KeyManagementException e1) {
-                WakaTime.log.error(e1);
-            } catch (IOException e1) {
-                WakaTime.log.error(e1);
-            }
+            Files.move(backup.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            WakaTime.log.info("Restored " + target + " after an interrupted upgrade");
         } catch (IOException e) {
-            WakaTime.log.error(e);
+            WakaTime.log.warn(e);
         }
+    }
+
+    public static boolean downloadFile(String url, String saveAs) {
+        return downloadFile(url, saveAs, null);
+    }
 
-        return false;
+    /**
+     * Downloads url to saveAs, resuming a previous partial download when
+     * possible. When sha256 is given the download must match it.
+     */
+    public static boolean downloadFile(String url, String saveAs, String sha256) {
+        return new Downloader(url, new File(saveAs), sha256, null).download();
     }
 
     public static String getUrlAsString(String url) {
@@ -312,30 +322,14 @@ public class Dependencies {
         } catch (MalformedURLException e) { }
 
         try {
-            InputStream inputStream = downloadUrl.openStream();
-            byte[] buffer = new byte[4096];
-            while (inputStream.read(buffer) != -1) {
-                text.append(new String(buffer, "UTF-8"));
-            }
-            inputStream.close();
+            text.append(readAsString(downloadUrl.openStream()));
         } catch (RuntimeException e) {
             WakaTime.log.error(e);
             try {
                 // try downloading without verifying SSL cert (https://github.com/wakatime/jetbrains-wakatime/issues/46)
-                SSLContext SSL_CONTEXT = SSLContext.getInstance("SSL");
-                SSL_CONTEXT.init(null, new TrustManager[] { new LocalSSLTrustManager() }, null);
-                HttpsURLConnection.setDefaultSSLSocketFactory(SSL_CONTEXT.getSocketFactory());
                 HttpsURLConnection conn = (HttpsURLConnection)downloadUrl.openConnection();
-                InputStream inputStream = conn.getInputStream();
-                byte[] buffer = new byte[4096];
-                while (inputStream.read(buffer) != -1) {
-                    text.append(new String(buffer, "UTF-8"));
-                }
-                inputStream.close();
-            } catch (NoSuchAlgorithmException e1) {
-                WakaTime.log.error(e1);
-            } catch (KeyManagementException e1) {
-                WakaTime.log.error(e1);
+                conn.setSSLSocketFactory(getTrustAllSocketFactory());
+                text.append(readAsString(conn.getInputStream()));
             } catch (IOException e1) {
                 WakaTime.log.error(e1);
             }
@@ -346,34 +340,106 @@ public class Dependencies {
         return text.toString();
     }
 
+    private static String readAsString(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, len);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    // skips verifying SSL certs, for machines whose Java is missing cacerts
+    static SSLSocketFactory getTrustAllSocketFactory() throws IOException {
+        try {
+            SSLContext context = SSLContext.getInstance("SSL");
+            context.init(null, new TrustManager[] { new LocalSSLTrustManager() }, null);
+            return context.getSocketFactory();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        } catch (KeyManagementException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
     private static void unzip(String zipFile, File outputDir) throws IOException {
         if(!outputDir.exists())
             outputDir.mkdirs();
 
-        byte[] buffer = new byte[1024];
-        ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile));
-        ZipEntry ze = zis.getNextEntry();
-
-        while (ze != null) {
-            String fileName = ze.getName();
-            File newFile = new File(outputDir, fileName);
-
-            if (ze.isDirectory()) {
-                newFile.mkdirs();
-            } else {
-                FileOutputStream fos = new FileOutputStream(newFile.getAbsolutePath());
-                int len;
-                while ((len = zis.read(buffer)) > 0) {
-                    fos.write(buffer, 0, len);
+        final ZipFile zip = new ZipFile(zipFile);
+        ExecutorService pool = null;
+        try {
+            // create directories first, then entries can be written in any order
+            String root = outputDir.getCanonicalPath() + File.separator;
+            final ArrayList<ZipEntry> entries = new ArrayList<ZipEntry>();
+            final ArrayList<File> files = new ArrayList<File>();
+            Enumeration<? extends ZipEntry> it = zip.entries();
+            while (it.hasMoreElements()) {
+                ZipEntry ze = it.nextElement();
+                File newFile = new File(outputDir, ze.getName());
+                if (!newFile.getCanonicalPath().startsWith(root))
+                    throw new IOException("Zip entry outside of target directory: " + ze.getName());
+                if (ze.isDirectory()) {
+                    newFile.mkdirs();
+                } else {
+                    newFile.getParentFile().mkdirs();
+                    entries.add(ze);
+                    files.add(newFile);
                 }
-                fos.close();
             }
 
-            ze = zis.getNextEntry();
+            pool = Executors.newFixedThreadPool(UNZIP_THREADS);
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < entries.size(); i++) {
+                final ZipEntry ze = entries.get(i);
+                final File newFile = files.get(i);
+                futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        extract(zip, ze, newFile);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    throw new IOException(e.getCause().toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while extracting " + zipFile);
+                }
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdownNow();
+            zip.close();
         }
+    }
 
-        zis.closeEntry();
-        zis.close();
+    private static void extract(ZipFile zip, ZipEntry ze, File newFile) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(zip.getInputStream(ze));
+        FileChannel out = new FileOutputStream(newFile).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(UNZIP_BUFFER);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
     }
 
     private static void deleteDirectory(File path) {
@@ -401,7 +467,7 @@ public class Dependencies {
         return is64bit;
     }
 
-    private static String combinePaths(String... args) {
+    static String combinePaths(String... args) {
         File path = null;
         for (String arg : args) {
             if (arg != null) {
@@ -0,0 +1,90 @@
+/* ==========================================================
+File:        Diagnostics.java
+Description: Shows the heartbeat pipeline metrics.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+public class Diagnostics extends DialogWrapper {
+
+    public static final int REFRESH = 1; // seconds between updates while open
+
+    private final JPanel panel;
+    private final JTextArea metrics;
+    private final JTextArea output;
+    private final Timer timer;
+
+    public Diagnostics(@Nullable Project project) {
+        super(project, true);
+        setTitle("WakaTime Diagnostics");
+        setModal(false);
+        panel = new JPanel(new BorderLayout());
+        metrics = createTextArea();
+        output = createTextArea();
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Metrics", new JScrollPane(metrics));
+        tabs.addTab("CLI Output", new JScrollPane(output));
+        panel.add(tabs, BorderLayout.CENTER);
+        timer = new Timer(REFRESH * 1000, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        refresh();
+
+        init();
+    }
+
+    @Nullable
+    @Override
+    protected JComponent createCenterPanel() {
+        return panel;
+    }
+
+    @Override
+    protected Action[] createActions() {
+        return new Action[] {getOKAction()};
+    }
+
+    @Override
+    public void show() {
+        timer.start();
+        super.show();
+    }
+
+    @Override
+    protected void dispose() {
+        timer.stop();
+        super.dispose();
+    }
+
+    private void refresh() {
+        metrics.setText(Metrics.summary());
+        metrics.setCaretPosition(0);
+        String text = CliOutput.text();
+        if (!text.equals(output.getText())) {
+            output.setText(text);
+            // follow the newest lines
+            output.setCaretPosition(text.length());
+        }
+    }
+
+    private static JTextArea createTextArea() {
+        JTextArea text = new JTextArea(24, 100);
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, text.getFont().getSize()));
+        return text;
+    }
+}
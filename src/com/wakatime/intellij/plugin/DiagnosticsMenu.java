@@ -0,0 +1,24 @@
+/* ==========================================================
+File:        DiagnosticsMenu.java
+Description: Adds a WakaTime Diagnostics item to the Tools menu.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.Project;
+
+public class DiagnosticsMenu extends AnAction {
+    public DiagnosticsMenu() {
+        super("WakaTime Diagnostics");
+    }
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getData(PlatformDataKeys.PROJECT);
+        new Diagnostics(project).show();
+    }
+}
@@ -0,0 +1,272 @@
+/* ==========================================================
+File:        Downloader.java
+Description: Resumable, checksummed file downloads.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Downloads into a ".part" file next to the target. When a download is
+ * interrupted the next attempt asks for the rest with an HTTP Range
+ * request, guarded by If-Range so a changed file starts over. A SHA-256
+ * digest is computed while writing and checked against the expected one
+ * when given.
+ */
+public class Downloader {
+
+    public static final int ATTEMPTS = 3;
+    public static final int TIMEOUT = 30; // seconds for connecting and reading
+    public static final int BUFFER_SIZE = 64 * 1024; // bytes
+
+    public interface Progress {
+        /**
+         * @param total bytes in the whole file, or -1 when unknown
+         */
+        void update(long downloaded, long total);
+    }
+
+    private final String url;
+    private final File saveAs;
+    private final File partFile;
+    private final File metaFile;
+    private final String sha256;
+    private final Progress progress;
+
+    public Downloader(String url, File saveAs, String sha256, Progress progress) {
+        this.url = url;
+        this.saveAs = saveAs;
+        this.partFile = new File(saveAs.getAbsolutePath() + ".part");
+        this.metaFile = new File(saveAs.getAbsolutePath() + ".part.properties");
+        this.sha256 = sha256;
+        this.progress = progress != null ? progress : new LogProgress(url);
+    }
+
+    public boolean download() {
+        File outDir = saveAs.getParentFile();
+        if (!outDir.exists())
+            outDir.mkdirs();
+
+        boolean trustAll = false;
+        for (int attempt = 1; attempt <= ATTEMPTS; attempt++) {
+            try {
+                String digest = attempt(trustAll);
+                if (sha256 != null && !sha256.equalsIgnoreCase(digest)) {
+                    WakaTime.log.error("Checksum mismatch for " + url + ", expected " + sha256 + " but got " + digest);
+                    discardPart();
+                    continue;
+                }
+                WakaTime.log.debug("Downloaded " + url + " with sha256 " + digest);
+                if (saveAs.exists())
+                    saveAs.delete();
+                if (!partFile.renameTo(saveAs))
+                    throw new IOException("Unable to rename " + partFile + " to " + saveAs);
+                metaFile.delete();
+                return true;
+            } catch (RuntimeException e) {
+                WakaTime.log.error(e);
+                if (trustAll)
+                    return false;
+                // try downloading without verifying SSL cert (https://github.com/wakatime/jetbrains-wakatime/issues/46)
+                trustAll = true;
+            } catch (IOException e) {
+                WakaTime.log.warn("Downloading " + url + " failed on attempt " + attempt + ": " + e);
+            }
+        }
+        return false;
+    }
+
+    private String attempt(boolean trustAll) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+
+        URLConnection conn = new URL(url).openConnection();
+        if (trustAll && conn instanceof HttpsURLConnection)
+            ((HttpsURLConnection) conn).setSSLSocketFactory(Dependencies.getTrustAllSocketFactory());
+        conn.setConnectTimeout(TIMEOUT * 1000);
+        conn.setReadTimeout(TIMEOUT * 1000);
+
+        long existing = partFile.exists() ? partFile.length() : 0;
+        String validator = loadValidator();
+        boolean resume = false;
+        if (conn instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) conn;
+            if (existing > 0 && validator != null) {
+                http.setRequestProperty("Range", "bytes=" + existing + "-");
+                http.setRequestProperty("If-Range", validator);
+            }
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                // appending any other range than the one asked for would corrupt the .part
+                String range = http.getHeaderField("Content-Range");
+                if (existing == 0 || validator == null || range == null
+                        || !range.trim().startsWith("bytes " + existing + "-")) {
+                    http.disconnect();
+                    discardPart();
+                    throw new IOException("Unexpected Content-Range " + range + " resuming at " + existing + " bytes");
+                }
+                resume = true;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                if (status == 416)
+                    discardPart();
+                throw new IOException("Unexpected response " + status);
+            }
+        }
+
+        long total = parseLong(conn.getHeaderField("Content-Length"));
+        if (resume) {
+            WakaTime.log.debug("Resuming download of " + url + " at " + existing + " bytes");
+            digestFile(partFile, md);
+            if (total >= 0)
+                total += existing;
+        } else {
+            existing = 0;
+            saveValidator(conn);
+        }
+
+        InputStream in = conn.getInputStream();
+        OutputStream out = new FileOutputStream(partFile, resume);
+        long downloaded = existing;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+                md.update(buffer, 0, len);
+                downloaded += len;
+                progress.update(downloaded, total);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (total >= 0 && downloaded < total)
+            throw new IOException("Connection closed after " + downloaded + " of " + total + " bytes");
+        return toHex(md.digest());
+    }
+
+    private void discardPart() {
+        partFile.delete();
+        metaFile.delete();
+    }
+
+    private String loadValidator() {
+        if (!metaFile.exists())
+            return null;
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { }
+            }
+        }
+        if (!url.equals(props.getProperty("url")))
+            return null;
+        return props.getProperty("validator");
+    }
+
+    // remembers which version of the file the .part holds so it is only resumed against the same one
+    private void saveValidator(URLConnection conn) {
+        String validator = conn.getHeaderField("ETag");
+        if (validator == null || validator.startsWith("W/"))
+            validator = conn.getHeaderField("Last-Modified");
+        if (validator == null) {
+            metaFile.delete();
+            return;
+        }
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("validator", validator);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(metaFile);
+            props.store(out, "partial download");
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+    private static void digestFile(File file, MessageDigest md) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                md.update(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Logs every tenth of the download, or every megabyte when the size
+     * is unknown.
+     */
+    private static class LogProgress implements Progress {
+        private final String url;
+        private long lastLogged = 0;
+
+        LogProgress(String url) {
+            this.url = url;
+        }
+
+        public void update(long downloaded, long total) {
+            long step = total > 0 ? Math.max(total / 10, 1) : 1024 * 1024;
+            if (downloaded - lastLogged < step && downloaded != total)
+                return;
+            lastLogged = downloaded;
+            if (total > 0)
+                WakaTime.log.debug("Downloaded " + (downloaded * 100 / total) + "% of " + url);
+            else
+                WakaTime.log.debug("Downloaded " + downloaded + " bytes of " + url);
+        }
+    }
+}
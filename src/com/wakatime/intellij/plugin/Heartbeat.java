@@ -0,0 +1,294 @@
+/* ==========================================================
+File:        Heartbeat.java
+Description: A single unit of coding activity waiting to be sent.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Held in memory by the dispatcher and other queues, so strings are kept
+ * as HeartbeatDictionary ids and the rest as primitives, 48 bytes a
+ * heartbeat with compressed oops. Only a heartbeat merged from several
+ * journal records also holds an array of their positions. write and read
+ * carry the strings themselves, for another JVM; writeCompact and
+ * readCompact carry only the ids and a varint timestamp, about a dozen
+ * bytes, for the journal which keeps the strings next to them.
+ */
+public class Heartbeat {
+    private static final long[] NO_POSITIONS = new long[0];
+    private static final long NO_POSITION = -1;
+    private static final byte WRITE = 1;
+
+    private final int entity;
+    private final int project; // -1 for none
+    private final int plugin;
+    private final long timestamp;
+    private final byte flags;
+    private long journalPosition = NO_POSITION;
+    private long[] mergedPositions; // null unless merged from more than one journal record
+
+    public Heartbeat(String entity, long timestamp, boolean isWrite, String project) {
+        this(entity, timestamp, isWrite, project, WakaTime.getPlugin());
+    }
+
+    public Heartbeat(String entity, long timestamp, boolean isWrite, String project, String plugin) {
+        this(HeartbeatDictionary.id(entity), timestamp, isWrite ? WRITE : 0,
+                project == null ? -1 : HeartbeatDictionary.id(project), HeartbeatDictionary.id(plugin));
+    }
+
+    private Heartbeat(int entity, long timestamp, byte flags, int project, int plugin) {
+        this.entity = entity;
+        this.timestamp = timestamp;
+        this.flags = flags;
+        this.project = project;
+        this.plugin = plugin;
+    }
+
+    public String getEntity() {
+        return HeartbeatDictionary.get(entity);
+    }
+
+    // milliseconds since epoch
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isWrite() {
+        return (flags & WRITE) != 0;
+    }
+
+    public String getProject() {
+        return project < 0 ? null : HeartbeatDictionary.get(project);
+    }
+
+    // the IDE and plugin versions which produced this heartbeat
+    public String getPlugin() {
+        return HeartbeatDictionary.get(plugin);
+    }
+
+    int getEntityId() {
+        return entity;
+    }
+
+    int getProjectId() {
+        return project;
+    }
+
+    int getPluginId() {
+        return plugin;
+    }
+
+    // journal records this heartbeat stands for, more than one once merged
+    long[] getJournalPositions() {
+        if (mergedPositions != null)
+            return mergedPositions;
+        return journalPosition == NO_POSITION ? NO_POSITIONS : new long[] {journalPosition};
+    }
+
+    void setJournalPosition(long journalPosition) {
+        this.journalPosition = journalPosition;
+        this.mergedPositions = null;
+    }
+
+    /**
+     * Returns one heartbeat for this and a later heartbeat in the same file
+     * and project, with the latest timestamp, a write if either was one,
+     * and the journal records of both.
+     */
+    public Heartbeat merge(Heartbeat other) {
+        Heartbeat merged = new Heartbeat(entity, Math.max(timestamp, other.timestamp), (byte) (flags | other.flags), project, plugin);
+        long[] positions = getJournalPositions();
+        long[] otherPositions = other.getJournalPositions();
+        if (positions.length + otherPositions.length == 1) {
+            merged.journalPosition = positions.length == 1 ? positions[0] : otherPositions[0];
+        } else if (positions.length + otherPositions.length > 1) {
+            merged.mergedPositions = new long[positions.length + otherPositions.length];
+            System.arraycopy(positions, 0, merged.mergedPositions, 0, positions.length);
+            System.arraycopy(otherPositions, 0, merged.mergedPositions, positions.length, otherPositions.length);
+        }
+        return merged;
+    }
+
+    /**
+     * Splits heartbeats by the plugin which produced them, keeping their
+     * order, since one cli run or api request names a single plugin.
+     */
+    static Collection<List<Heartbeat>> groupByPlugin(List<Heartbeat> heartbeats) {
+        LinkedHashMap<Integer, List<Heartbeat>> groups = new LinkedHashMap<Integer, List<Heartbeat>>();
+        for (Heartbeat heartbeat : heartbeats) {
+            List<Heartbeat> group = groups.get(heartbeat.plugin);
+            if (group == null) {
+                group = new ArrayList<Heartbeat>(heartbeats.size());
+                groups.put(heartbeat.plugin, group);
+            }
+            group.add(heartbeat);
+        }
+        return groups.values();
+    }
+
+    // identifies heartbeats which can be merged
+    public long getKey() {
+        return ((long) entity << 32) | (project & 0xffffffffL);
+    }
+
+    // binary form used by the broker, with the strings spelled out
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(getEntity());
+        out.writeLong(timestamp);
+        out.writeByte(flags);
+        out.writeBoolean(project >= 0);
+        if (project >= 0)
+            out.writeUTF(getProject());
+        out.writeUTF(getPlugin());
+    }
+
+    static Heartbeat read(DataInput in) throws IOException {
+        int entity = HeartbeatDictionary.id(in.readUTF());
+        long timestamp = in.readLong();
+        byte flags = in.readByte();
+        int project = in.readBoolean() ? HeartbeatDictionary.id(in.readUTF()) : -1;
+        int plugin = HeartbeatDictionary.id(in.readUTF());
+        return new Heartbeat(entity, timestamp, flags, project, plugin);
+    }
+
+    /**
+     * Writes the ids, timestamp and flags, numbering the dictionary ids as
+     * given by ids. The reader needs the strings for those ids, which the
+     * journal stores alongside.
+     */
+    void writeCompact(DataOutput out, Map<Integer, Integer> ids) throws IOException {
+        writeVarLong(out, ids.get(entity));
+        writeVarLong(out, project < 0 ? 0 : ids.get(project) + 1);
+        writeVarLong(out, ids.get(plugin));
+        writeVarLong(out, timestamp);
+        out.writeByte(flags);
+    }
+
+    /**
+     * Reads a heartbeat written by writeCompact, looking up its ids in
+     * strings, which may come from an earlier session.
+     */
+    static Heartbeat readCompact(DataInput in, Map<Integer, String> strings) throws IOException {
+        int entity = lookup(strings, (int) readVarLong(in));
+        int project = (int) readVarLong(in) - 1;
+        if (project >= 0)
+            project = lookup(strings, project);
+        int plugin = lookup(strings, (int) readVarLong(in));
+        long timestamp = readVarLong(in);
+        byte flags = in.readByte();
+        return new Heartbeat(entity, timestamp, flags, project, plugin);
+    }
+
+    private static int lookup(Map<Integer, String> strings, int id) throws IOException {
+        String s = strings.get(id);
+        if (s == null)
+            throw new IOException("Unknown dictionary id " + id);
+        return HeartbeatDictionary.id(s);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // wakatime-cli expects seconds since epoch as a decimal number
+    public String getTimestampSeconds() {
+        return BigDecimal.valueOf(timestamp).movePointLeft(3).toPlainString();
+    }
+
+    public String toJSON() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"entity\":\"");
+        sb.append(jsonEscape(getEntity()));
+        sb.append("\",\"type\":\"file\",\"timestamp\":");
+        sb.append(getTimestampSeconds());
+        sb.append(",\"is_write\":");
+        sb.append(isWrite());
+        if (project >= 0) {
+            sb.append(",\"project\":\"");
+            sb.append(jsonEscape(getProject()));
+            sb.append("\"");
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
+    public static String toJSON(Iterable<Heartbeat> heartbeats) {
+        StringBuilder sb = new StringBuilder("[");
+        boolean first = true;
+        for (Heartbeat heartbeat : heartbeats) {
+            if (!first)
+                sb.append(",");
+            sb.append(heartbeat.toJSON());
+            first = false;
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    static String jsonEscape(String s) {
+        if (s == null)
+            return null;
+        StringBuilder escaped = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\b':
+                    escaped.append("\\b");
+                    break;
+                case '\f':
+                    escaped.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
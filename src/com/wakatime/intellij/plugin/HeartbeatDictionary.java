@@ -0,0 +1,55 @@
+/* ==========================================================
+File:        HeartbeatDictionary.java
+Description: Interns the strings heartbeats repeat as small ids.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * File paths, project names and plugin strings are shared by many
+ * heartbeats, so each heartbeat keeps an int id for them instead of its
+ * own copy, and the journal writes each string once per segment. Ids are
+ * handed out in order from 0 and live as long as the IDE; a session only
+ * ever sees as many strings as files it edited.
+ */
+public class HeartbeatDictionary {
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] strings = new String[256];
+    private static int size = 0;
+
+    /**
+     * Returns the id of a string, adding it when first seen.
+     */
+    public static int id(String s) {
+        Integer id = ids.get(s);
+        if (id != null)
+            return id;
+        synchronized (HeartbeatDictionary.class) {
+            id = ids.get(s);
+            if (id != null)
+                return id;
+            if (size == strings.length)
+                strings = Arrays.copyOf(strings, size * 2);
+            // published to other threads by the put below
+            strings[size] = s;
+            id = size++;
+            ids.put(s, id);
+            return id;
+        }
+    }
+
+    public static String get(int id) {
+        return strings[id];
+    }
+
+    public static int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,438 @@
+/* ==========================================================
+File:        HeartbeatDispatcher.java
+Description: Queues heartbeats and sends them in batches from one thread.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Heartbeats are added to a bounded queue from any thread without
+ * blocking, and a single dedicated thread takes them off the queue in
+ * batches and hands each batch to the sender. When the queue is full a
+ * pending heartbeat for the same file is replaced by the new one, and if
+ * there is none the oldest pending heartbeat is dropped. Heartbeats for
+ * the same file and project arriving within one batch window are merged
+ * into a single heartbeat before sending.
+ *
+ * Each project has its own queue, and batches take one heartbeat from
+ * each project in turn, so a project churning through generated files
+ * cannot hold back the others. A project may also be limited to a number
+ * of heartbeats per minute, beyond which its heartbeats wait in its queue
+ * while other projects are served. When the queue is full, the oldest
+ * heartbeat of the project with the most pending is dropped. A project
+ * whose queue stayed empty for IDLE_TIMEOUT is forgotten, along with its
+ * rate limit and counters.
+ */
+public class HeartbeatDispatcher implements Runnable {
+
+    public static final int QUEUE_CAPACITY = 1000; // heartbeats waiting to be sent, across all projects
+    public static final long SHUTDOWN_TIMEOUT = 5; // seconds to wait for the last batch when stopping
+    public static final long IDLE_TIMEOUT = 10; // minutes before an empty project queue is forgotten, longer than its rate limit remembers
+
+    public interface Sender {
+        void send(List<Heartbeat> batch);
+
+        // called outside the dispatcher's lock for a heartbeat dropped from a full queue
+        void dropped(Heartbeat heartbeat);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // by project dictionary id, -1 for heartbeats without a project
+    private final LinkedHashMap<Integer, ProjectQueue> projects = new LinkedHashMap<Integer, ProjectQueue>();
+    private final ArrayList<ProjectQueue> ring = new ArrayList<ProjectQueue>();
+    private int next = 0;
+    private int size = 0;
+    private long pruned = System.nanoTime();
+    private final int capacity;
+    private final Sender sender;
+    private final long batchWindow;
+    private final int maxBatchSize;
+    private final int projectRate;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile boolean running = false;
+    private volatile Thread thread;
+
+    public HeartbeatDispatcher(Sender sender, long batchWindow, int maxBatchSize, int capacity) {
+        this(sender, batchWindow, maxBatchSize, capacity, 0);
+    }
+
+    /**
+     * @param projectRate heartbeats per minute sent for each project, or 0 for no limit
+     */
+    public HeartbeatDispatcher(Sender sender, long batchWindow, int maxBatchSize, int capacity, int projectRate) {
+        this.capacity = capacity;
+        this.sender = sender;
+        this.batchWindow = batchWindow;
+        this.maxBatchSize = maxBatchSize;
+        this.projectRate = projectRate;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this, "WakaTime heartbeat dispatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatcher thread after it sends the heartbeats still in
+     * the queue, waiting at most SHUTDOWN_TIMEOUT seconds.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(SHUTDOWN_TIMEOUT * 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Queues a heartbeat without ever blocking the caller.
+     */
+    public void add(Heartbeat heartbeat) {
+        Heartbeat dropped = null;
+        lock.lock();
+        try {
+            ProjectQueue project = projects.get(heartbeat.getProjectId());
+            if (project == null) {
+                project = new ProjectQueue(heartbeat.getProjectId(), heartbeat.getProject());
+                projects.put(heartbeat.getProjectId(), project);
+                ring.add(project);
+            }
+            project.active = System.nanoTime();
+            if (size >= capacity) {
+                Heartbeat replaced = project.replacePending(heartbeat);
+                if (replaced != null) {
+                    // sending the new one also acks the one it replaces
+                    heartbeat = replaced.merge(heartbeat);
+                    coalesced.incrementAndGet();
+                    size--;
+                } else {
+                    dropped = dropOldest();
+                }
+            }
+            project.heartbeats.add(heartbeat);
+            project.added++;
+            size++;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (dropped != null)
+            sender.dropped(dropped);
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cpu time the dispatcher thread has used, which includes everything
+     * it does to send batches but not waiting on the network, or 0 when
+     * the JVM cannot measure it.
+     */
+    public long getCpuNanos() {
+        Thread t = thread;
+        if (t == null)
+            return 0;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadCpuTimeSupported())
+            return 0;
+        return Math.max(0, threads.getThreadCpuTime(t.getId()));
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * One line per project active in the last IDLE_TIMEOUT: heartbeats
+     * queued now, added, dispatched, dropped, and how often the rate limit
+     * held one back.
+     */
+    public String projectSummary() {
+        StringBuilder sb = new StringBuilder();
+        lock.lock();
+        try {
+            for (ProjectQueue project : ring) {
+                sb.append("  ").append(project.name == null ? "(no project)" : project.name).append(": ")
+                        .append(project.heartbeats.size()).append(" queued, ")
+                        .append(project.added).append(" added, ")
+                        .append(project.dispatched).append(" dispatched, ")
+                        .append(project.dropped).append(" dropped, ")
+                        .append(project.limited).append(" rate limited\n");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return sb.toString();
+    }
+
+    public void run() {
+        while (running) {
+            Heartbeat first;
+            try {
+                first = poll(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                break;
+            }
+            LinkedHashMap<Long, Heartbeat> batch = new LinkedHashMap<Long, Heartbeat>();
+            merge(batch, first);
+            long deadline = System.currentTimeMillis() + batchWindow * 1000;
+            try {
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0)
+                        break;
+                    Heartbeat h = poll(wait);
+                    if (h == null)
+                        break;
+                    merge(batch, h);
+                }
+            } catch (InterruptedException e) {
+                // stopping, send what we have along with the rest of the queue
+                running = false;
+            }
+            send(new ArrayList<Heartbeat>(batch.values()));
+        }
+        flush();
+    }
+
+    // sends everything left, round-robin but ignoring the rate limit
+    private void flush() {
+        while (true) {
+            LinkedHashMap<Long, Heartbeat> batch = new LinkedHashMap<Long, Heartbeat>();
+            Heartbeat h;
+            while (batch.size() < maxBatchSize && (h = next(false, System.nanoTime())) != null) {
+                merge(batch, h);
+            }
+            if (batch.isEmpty())
+                return;
+            send(new ArrayList<Heartbeat>(batch.values()));
+        }
+    }
+
+    /**
+     * Takes the next heartbeat in round-robin order, waiting at most
+     * timeout milliseconds for one to be queued or for a rate limited
+     * project to be allowed another.
+     */
+    private Heartbeat poll(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (now - pruned > TimeUnit.MINUTES.toNanos(IDLE_TIMEOUT))
+                    prune(now);
+                Heartbeat heartbeat = next(true, now);
+                if (heartbeat != null)
+                    return heartbeat;
+                long wait = untilAllowed(now);
+                if (timeout != Long.MAX_VALUE)
+                    wait = Math.min(wait, deadline - now);
+                if (wait <= 0)
+                    return null;
+                available.awaitNanos(wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Heartbeat next(boolean limited, long now) {
+        lock.lock();
+        try {
+            for (int i = 0; i < ring.size(); i++) {
+                ProjectQueue project = ring.get((next + i) % ring.size());
+                if (project.heartbeats.isEmpty())
+                    continue;
+                if (limited && !project.tryAcquire(now, projectRate))
+                    continue;
+                next = (next + i + 1) % ring.size();
+                project.dispatched++;
+                project.active = now;
+                size--;
+                return project.heartbeats.poll();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // forgets projects idle for IDLE_TIMEOUT, keeping the round-robin position
+    private void prune(long now) {
+        pruned = now;
+        int kept = 0;
+        int keptBeforeNext = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            ProjectQueue project = ring.get(i);
+            if (project.heartbeats.isEmpty() && now - project.active > TimeUnit.MINUTES.toNanos(IDLE_TIMEOUT)) {
+                projects.remove(project.id);
+                continue;
+            }
+            if (i < next)
+                keptBeforeNext++;
+            ring.set(kept++, project);
+        }
+        ring.subList(kept, ring.size()).clear();
+        next = kept == 0 ? 0 : keptBeforeNext % kept;
+    }
+
+    // nanoseconds until a project with queued heartbeats may send one
+    private long untilAllowed(long now) {
+        long wait = Long.MAX_VALUE;
+        for (ProjectQueue project : ring) {
+            if (!project.heartbeats.isEmpty())
+                wait = Math.min(wait, project.untilAllowed(now, projectRate));
+        }
+        return wait;
+    }
+
+    private Heartbeat dropOldest() {
+        ProjectQueue largest = null;
+        for (ProjectQueue project : ring) {
+            if (largest == null || project.heartbeats.size() > largest.heartbeats.size())
+                largest = project;
+        }
+        if (largest == null || largest.heartbeats.isEmpty())
+            return null;
+        Heartbeat oldest = largest.heartbeats.poll();
+        largest.dropped++;
+        size--;
+        if (dropped.incrementAndGet() == 1)
+            WakaTime.log.warn("Heartbeat queue is full, dropping oldest heartbeats");
+        WakaTime.log.debug("Dropped heartbeat for " + oldest.getEntity());
+        return oldest;
+    }
+
+    /**
+     * Adds a heartbeat to the batch, merging it into an earlier one for
+     * the same file and project so a burst of saves or edits costs one.
+     */
+    private void merge(Map<Long, Heartbeat> batch, Heartbeat heartbeat) {
+        long key = heartbeat.getKey();
+        Heartbeat earlier = batch.get(key);
+        if (earlier == null) {
+            batch.put(key, heartbeat);
+        } else {
+            batch.put(key, earlier.merge(heartbeat));
+            coalesced.incrementAndGet();
+        }
+    }
+
+    private void send(List<Heartbeat> batch) {
+        if (batch.isEmpty())
+            return;
+        WakaTime.log.debug("Sending " + batch.size() + " heartbeats, " + getQueueDepth() + " still queued");
+        try {
+            sender.send(batch);
+        } catch (Exception e) {
+            WakaTime.log.error(e);
+        }
+    }
+
+    /**
+     * The pending heartbeats of one project, with a token bucket holding
+     * up to a minute's worth of its rate. Guarded by the dispatcher's lock.
+     */
+    private static class ProjectQueue {
+        final int id;
+        final String name;
+        final ArrayDeque<Heartbeat> heartbeats = new ArrayDeque<Heartbeat>();
+        double tokens = -1;
+        long refilled;
+        boolean held = false; // out of tokens with heartbeats waiting
+        long added = 0;
+        long dispatched = 0;
+        long dropped = 0;
+        long limited = 0;
+        long active; // nanoTime a heartbeat was last added or dispatched
+
+        ProjectQueue(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        boolean tryAcquire(long now, int rate) {
+            if (rate <= 0)
+                return true;
+            refill(now, rate);
+            if (tokens < 1) {
+                if (!held)
+                    limited++;
+                held = true;
+                return false;
+            }
+            held = false;
+            tokens--;
+            return true;
+        }
+
+        long untilAllowed(long now, int rate) {
+            if (rate <= 0)
+                return 0;
+            refill(now, rate);
+            if (tokens >= 1)
+                return 0;
+            return (long) Math.ceil((1 - tokens) * TimeUnit.MINUTES.toNanos(1) / rate);
+        }
+
+        private void refill(long now, int rate) {
+            if (tokens < 0) {
+                tokens = rate;
+            } else {
+                tokens = Math.min(rate, tokens + (double) (now - refilled) * rate / TimeUnit.MINUTES.toNanos(1));
+            }
+            refilled = now;
+        }
+
+        // removes and returns a pending heartbeat the given one can stand in for
+        Heartbeat replacePending(Heartbeat heartbeat) {
+            Iterator<Heartbeat> it = heartbeats.iterator();
+            while (it.hasNext()) {
+                Heartbeat pending = it.next();
+                if (!pending.isWrite() && pending.getKey() == heartbeat.getKey()) {
+                    it.remove();
+                    return pending;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/* ==========================================================
+File:        HeartbeatJournal.java
+Description: Append-only on-disk journal of heartbeats not yet sent.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Every heartbeat is appended to a memory-mapped segment file before it
+ * is queued, and marked as sent once the cli accepted it. A heartbeat is
+ * in flight from when it is queued until it is acked or released, and
+ * {@link #pendingForRetry} hands out only pending heartbeats which are not
+ * in flight: those from a previous IDE session or from before wakatime-cli
+ * was ready right away, and those released after a failed send or a queue
+ * overflow once RETRY_AFTER has passed.
+ *
+ * A segment starts with an 8 byte header followed by records laid out as
+ * [int length][int crc32][byte status][payload]. The length is written
+ * last, so a record torn by a crash reads as the end of the segment.
+ * Segments holding only sent heartbeats are deleted.
+ *
+ * Heartbeats are stored in their compact form, with ids numbered per
+ * segment. The first time a segment needs a string, a dictionary record
+ * holding [varint id][utf string] is written before the heartbeat, so
+ * every segment can be read on its own, and a later session can keep
+ * appending to the last one. Segments from before version 2 hold the
+ * strings in every record and are still read.
+ *
+ * Appends happen on the caller's thread, often the EDT, so the next
+ * segment is created ahead of time and full or emptied segments are
+ * forced, unmapped and deleted on a background thread.
+ */
+public class HeartbeatJournal {
+
+    public static final int SEGMENT_SIZE = 1024 * 1024; // bytes per segment file
+    public static final int MAX_SEGMENTS = 16; // oldest segment is discarded beyond this
+    public static final long RETRY_AFTER = 5; // minutes before a heartbeat which failed to send is sent again
+    public static final long CLOSE_TIMEOUT = 5; // seconds to wait for segments to be written out when closing
+
+    private static final int MAGIC = 0x57414b4a; // "WAKJ"
+    private static final int VERSION = 2;
+    private static final int LEGACY_VERSION = 1; // strings written out in every record
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int MAX_HEARTBEAT_SIZE = 26; // compact form: three int varints, a long varint and flags
+    private static final byte PENDING = 0;
+    private static final byte SENT = 1;
+    private static final byte DICTIONARY = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long IN_FLIGHT = Long.MAX_VALUE;
+
+    private final File dir;
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    // by position, IN_FLIGHT while queued or being sent, otherwise when it was released
+    private final HashMap<Long, Long> leases = new HashMap<Long, Long>();
+    private final CRC32 crc = new CRC32();
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "WakaTime heartbeat journal");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private Segment active;
+    // the segment after the active one, being created ahead of time on the background thread
+    private Future<Segment> spare;
+
+    public HeartbeatJournal(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Maps existing segments left by a previous session and counts the
+     * heartbeats they still hold.
+     */
+    public synchronized void open() throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Unable to create journal directory " + dir);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+                    continue;
+                long seq;
+                try {
+                    seq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                try {
+                    segments.put(seq, Segment.recover(seq, file));
+                } catch (IOException e) {
+                    WakaTime.log.warn("Discarding unreadable journal segment " + file + ": " + e);
+                    file.delete();
+                }
+            }
+        }
+        int pending = 0;
+        for (Segment segment : segments.values()) {
+            pending += segment.pending;
+        }
+        if (pending > 0)
+            WakaTime.log.info("Recovered " + pending + " unsent heartbeats from journal");
+        // ids are numbered per segment, so the last one can be appended to
+        if (!segments.isEmpty() && segments.lastEntry().getValue().version == VERSION) {
+            active = segments.lastEntry().getValue();
+            compact();
+            prepareSpare();
+        } else {
+            rotate();
+        }
+    }
+
+    /**
+     * Writes out and unmaps every segment, waiting at most CLOSE_TIMEOUT
+     * seconds.
+     */
+    public void close() {
+        final ArrayList<Segment> closing;
+        final Future<Segment> unused;
+        synchronized (this) {
+            closing = new ArrayList<Segment>(segments.values());
+            unused = spare;
+            segments.clear();
+            leases.clear();
+            active = null;
+            spare = null;
+        }
+        try {
+            background.execute(new Runnable() {
+                public void run() {
+                    // the spare was created before this task ran, since the background thread is a single one
+                    if (unused != null) {
+                        Segment segment = getSpare(unused);
+                        if (segment != null)
+                            closing.add(segment);
+                    }
+                    for (Segment segment : closing) {
+                        segment.close();
+                        if (segment.position == HEADER_SIZE)
+                            segment.file.delete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends a heartbeat and records its position in it. When dispatched
+     * is true the heartbeat is already on its way to the cli and is in
+     * flight until it is acked or released.
+     */
+    public synchronized void append(Heartbeat heartbeat, boolean dispatched) {
+        if (active == null)
+            return;
+        ArrayList<byte[]> dictionary = dictionaryRecords(heartbeat);
+        try {
+            if (active.position + size(dictionary) > SEGMENT_SIZE) {
+                rotate();
+                dictionary = dictionaryRecords(heartbeat);
+            }
+        } catch (IOException e) {
+            WakaTime.log.warn("Unable to rotate heartbeat journal: " + e);
+            return;
+        }
+        for (byte[] entry : dictionary) {
+            write(DICTIONARY, entry);
+        }
+        addStrings(active, heartbeat);
+        int offset = write(PENDING, serialize(active, heartbeat));
+        active.pending++;
+        long position = position(active.seq, offset);
+        heartbeat.setJournalPosition(position);
+        if (dispatched)
+            leases.put(position, IN_FLIGHT);
+    }
+
+    private int write(byte status, byte[] payload) {
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        MappedByteBuffer buffer = active.buffer;
+        int offset = active.position;
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        buffer.put(offset + 8, status);
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        buffer.putInt(offset, payload.length);
+        active.position = offset + RECORD_HEADER_SIZE + payload.length;
+        return offset;
+    }
+
+    // room needed for the dictionary records and the heartbeat after them
+    private static int size(List<byte[]> dictionary) {
+        int size = RECORD_HEADER_SIZE + MAX_HEARTBEAT_SIZE;
+        for (byte[] entry : dictionary) {
+            size += RECORD_HEADER_SIZE + entry.length;
+        }
+        return size;
+    }
+
+    // dictionary records the active segment still needs for this heartbeat
+    private ArrayList<byte[]> dictionaryRecords(Heartbeat heartbeat) {
+        ArrayList<byte[]> records = new ArrayList<byte[]>(3);
+        int next = active.nextId;
+        int[] ids = {heartbeat.getEntityId(), heartbeat.getProjectId(), heartbeat.getPluginId()};
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (id < 0 || active.ids.containsKey(id) || (i > 0 && id == ids[0]) || (i > 1 && id == ids[1]))
+                continue;
+            String s = HeartbeatDictionary.get(id);
+            if (active.idsByString.containsKey(s))
+                continue;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                Heartbeat.writeVarLong(out, next++);
+                out.writeUTF(s);
+                out.close();
+            } catch (IOException e) {
+                // writing to memory
+            }
+            records.add(bytes.toByteArray());
+        }
+        return records;
+    }
+
+    // numbers this session's ids in the segment, matching the dictionary records just written
+    private static void addStrings(Segment segment, Heartbeat heartbeat) {
+        for (int id : new int[] {heartbeat.getEntityId(), heartbeat.getProjectId(), heartbeat.getPluginId()}) {
+            if (id < 0 || segment.ids.containsKey(id))
+                continue;
+            String s = HeartbeatDictionary.get(id);
+            Integer local = segment.idsByString.get(s);
+            if (local == null) {
+                local = segment.nextId++;
+                segment.strings.put(local, s);
+                segment.idsByString.put(s, local);
+            }
+            segment.ids.put(id, local);
+        }
+    }
+
+    /**
+     * Marks heartbeats as sent and deletes segments left with nothing to send.
+     */
+    public synchronized void ack(Collection<Heartbeat> heartbeats) {
+        for (Heartbeat heartbeat : heartbeats) {
+            for (long position : heartbeat.getJournalPositions()) {
+                ack(position);
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Takes heartbeats which could not be sent out of flight, so they are
+     * handed out again by pendingForRetry after RETRY_AFTER.
+     */
+    public synchronized void release(Collection<Heartbeat> heartbeats) {
+        long now = System.currentTimeMillis();
+        for (Heartbeat heartbeat : heartbeats) {
+            for (long position : heartbeat.getJournalPositions()) {
+                if (leases.containsKey(position))
+                    leases.put(position, now);
+            }
+        }
+    }
+
+    private void ack(long position) {
+        leases.remove(position);
+        Segment segment = segments.get(position >>> 32);
+        if (segment == null)
+            return;
+        int offset = (int) position;
+        if (segment.buffer.get(offset + 8) == PENDING) {
+            segment.buffer.put(offset + 8, SENT);
+            segment.pending--;
+        }
+    }
+
+    /**
+     * Returns up to max pending heartbeats which are not in flight and
+     * were not released in the last RETRY_AFTER minutes, oldest first.
+     * They are in flight until acked or released.
+     */
+    public synchronized List<Heartbeat> pendingForRetry(int max) {
+        ArrayList<Heartbeat> heartbeats = new ArrayList<Heartbeat>();
+        long expired = System.currentTimeMillis() - RETRY_AFTER * 60 * 1000;
+        for (Segment segment : segments.values()) {
+            if (segment.pending == 0)
+                continue;
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = HEADER_SIZE;
+            while (offset < segment.position && heartbeats.size() < max) {
+                int length = buffer.getInt(offset);
+                if (buffer.get(offset + 8) == PENDING) {
+                    long position = position(segment.seq, offset);
+                    Long leased = leases.get(position);
+                    if (leased == null || (leased != IN_FLIGHT && leased < expired)) {
+                        Heartbeat heartbeat = deserialize(segment, offset + RECORD_HEADER_SIZE, length);
+                        if (heartbeat != null) {
+                            heartbeat.setJournalPosition(position);
+                            leases.put(position, IN_FLIGHT);
+                            heartbeats.add(heartbeat);
+                        }
+                    }
+                }
+                offset += RECORD_HEADER_SIZE + length;
+            }
+            if (heartbeats.size() >= max)
+                break;
+        }
+        return heartbeats;
+    }
+
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (Segment segment : segments.values()) {
+            pending += segment.pending;
+        }
+        return pending;
+    }
+
+    private void rotate() throws IOException {
+        final Segment full = active;
+        long seq = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Segment next = null;
+        if (spare != null) {
+            // waits when the spare is not ready yet, so its file is never created twice
+            try {
+                next = spare.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for the next journal segment");
+            } catch (ExecutionException e) {
+                WakaTime.log.debug("Unable to create journal segment ahead of time: " + e.getCause());
+            }
+            spare = null;
+        }
+        // the spare always follows the active segment, and failed to be created otherwise
+        active = next != null && next.seq == seq ? next : Segment.create(seq, segmentFile(seq));
+        segments.put(seq, active);
+        compact();
+        prepareSpare();
+        if (full != null && segments.containsValue(full)) {
+            submit(new Runnable() {
+                public void run() {
+                    full.buffer.force();
+                }
+            });
+        }
+    }
+
+    // creates the segment after the active one on the background thread
+    private void prepareSpare() {
+        final long seq = active.seq + 1;
+        try {
+            spare = background.submit(new Callable<Segment>() {
+                public Segment call() throws IOException {
+                    return Segment.create(seq, segmentFile(seq));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            spare = null;
+        }
+    }
+
+    private static Segment getSpare(Future<Segment> spare) {
+        try {
+            return spare.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // nothing was created
+        }
+        return null;
+    }
+
+    // runs a task on the background thread after those already submitted, package-private for tests
+    void submit(Runnable task) {
+        try {
+            background.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    private File segmentFile(long seq) {
+        return new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    private void compact() {
+        Iterator<Segment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment == active)
+                continue;
+            if (segment.pending == 0 || segments.size() > MAX_SEGMENTS) {
+                if (segment.pending > 0) {
+                    WakaTime.log.warn("Heartbeat journal is full, discarding " + segment.pending + " unsent heartbeats");
+                    Metrics.discarded.addAndGet(segment.pending);
+                }
+                it.remove();
+                delete(segment);
+            }
+        }
+        Iterator<Long> leased = leases.keySet().iterator();
+        while (leased.hasNext()) {
+            if (!segments.containsKey(leased.next() >>> 32))
+                leased.remove();
+        }
+    }
+
+    // no longer reachable from the journal, so the background thread can unmap it
+    private void delete(final Segment segment) {
+        submit(new Runnable() {
+            public void run() {
+                segment.close();
+                if (!segment.file.delete())
+                    WakaTime.log.debug("Unable to delete journal segment " + segment.file);
+            }
+        });
+    }
+
+    private static long position(long seq, int offset) {
+        return (seq << 32) | offset;
+    }
+
+    private static byte[] serialize(Segment segment, Heartbeat heartbeat) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            heartbeat.writeCompact(out, segment.ids);
+            out.close();
+        } catch (IOException e) {
+            // writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Heartbeat deserialize(Segment segment, int offset, int length) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(segment.read(offset, length)));
+        try {
+            if (segment.version == LEGACY_VERSION) {
+                String entity = in.readUTF();
+                long timestamp = in.readLong();
+                boolean isWrite = in.readBoolean();
+                String project = in.readBoolean() ? in.readUTF() : null;
+                return new Heartbeat(entity, timestamp, isWrite, project);
+            }
+            return Heartbeat.readCompact(in, segment.strings);
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+            return null;
+        }
+    }
+
+    private static class Segment {
+        final long seq;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int version;
+        // strings of the dictionary records in this segment, by the ids they were written with
+        final HashMap<Integer, String> strings = new HashMap<Integer, String>();
+        final HashMap<String, Integer> idsByString = new HashMap<String, Integer>();
+        // ids written to this segment by this session's HeartbeatDictionary ids
+        final HashMap<Integer, Integer> ids = new HashMap<Integer, Integer>();
+        int nextId = 0;
+        int position = HEADER_SIZE;
+        int pending = 0;
+
+        private Segment(long seq, File file, MappedByteBuffer buffer, int version) {
+            this.seq = seq;
+            this.file = file;
+            this.buffer = buffer;
+            this.version = version;
+        }
+
+        static Segment create(long seq, File file) throws IOException {
+            Segment segment = new Segment(seq, file, map(file), VERSION);
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, VERSION);
+            return segment;
+        }
+
+        static Segment recover(long seq, File file) throws IOException {
+            if (file.length() != SEGMENT_SIZE)
+                throw new IOException("unexpected size " + file.length());
+            MappedByteBuffer buffer = map(file);
+            int version = buffer.getInt(4);
+            if (buffer.getInt(0) != MAGIC || (version != VERSION && version != LEGACY_VERSION))
+                throw new IOException("bad header");
+            Segment segment = new Segment(seq, file, buffer, version);
+            CRC32 crc = new CRC32();
+            int offset = HEADER_SIZE;
+            while (offset + RECORD_HEADER_SIZE <= SEGMENT_SIZE) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || offset + RECORD_HEADER_SIZE + length > SEGMENT_SIZE)
+                    break;
+                byte[] payload = segment.read(offset + RECORD_HEADER_SIZE, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != buffer.getInt(offset + 4))
+                    break;
+                byte status = buffer.get(offset + 8);
+                if (status == PENDING) {
+                    segment.pending++;
+                } else if (status == DICTIONARY) {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                    int id = (int) Heartbeat.readVarLong(in);
+                    String s = in.readUTF();
+                    segment.strings.put(id, s);
+                    segment.idsByString.put(s, id);
+                    segment.nextId = Math.max(segment.nextId, id + 1);
+                }
+                offset += RECORD_HEADER_SIZE + length;
+            }
+            // anything after the last valid record is a torn write
+            for (int i = offset; i < Math.min(offset + RECORD_HEADER_SIZE, SEGMENT_SIZE); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            segment.position = offset;
+            return segment;
+        }
+
+        byte[] read(int offset, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(offset + i);
+            }
+            return bytes;
+        }
+
+        private static MappedByteBuffer map(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            } finally {
+                // the mapping stays valid after the channel is closed
+                raf.close();
+            }
+        }
+
+        // the segment must not be used afterwards
+        void close() {
+            buffer.force();
+            unmap(buffer);
+        }
+
+        /**
+         * Releases the mapping now rather than when the buffer is garbage
+         * collected, since Windows refuses to delete a mapped file.
+         */
+        private static void unmap(MappedByteBuffer buffer) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                try {
+                    // Java 9 and later
+                    unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+                    return;
+                } catch (NoSuchMethodException e) {
+                    // Java 8
+                }
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            } catch (Exception e) {
+                WakaTime.log.debug("Unable to unmap journal segment: " + e);
+            }
+        }
+    }
+}
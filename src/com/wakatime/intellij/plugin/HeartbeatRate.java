@@ -0,0 +1,104 @@
+/* ==========================================================
+File:        HeartbeatRate.java
+Description: Adapts the heartbeat interval to how busy sending them is.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+/**
+ * Widens the interval of a HeartbeatThrottle while sending heartbeats
+ * costs too much cpu or they pile up in the queue, and narrows it back
+ * once sending is cheap again. Every ADJUST_INTERVAL the cpu spent on
+ * sending is estimated as the dispatcher thread's own cpu time, which
+ * leaves out time spent waiting on the network, plus SPAWN_CPU for every
+ * cli.py process and WORKER_CPU for every worker request, whose cpu the
+ * JVM cannot see. Over CPU_BUDGET for WIDEN_AFTER adjustments in a row,
+ * or a backed up queue, doubles the interval, while under NARROW_BELOW
+ * with an empty queue for NARROW_AFTER adjustments in a row shrinks it
+ * by a quarter, so a single send does not swing the interval back and
+ * forth. The bounds come from the [settings] section of ~/.wakatime.cfg,
+ * in seconds:
+ *
+ *   heartbeat_min_interval = 120
+ *   heartbeat_max_interval = 600
+ *
+ * Setting both to the same value turns the adaptation off.
+ */
+public class HeartbeatRate {
+
+    public static final long ADJUST_INTERVAL = 15; // seconds between adjustments
+    public static final long MAX_INTERVAL = 10; // default minutes between heartbeats under load
+    public static final double CPU_BUDGET = 0.02; // share of one core sending may use
+    public static final double NARROW_BELOW = 0.005; // share of one core under which sending counts as cheap
+    public static final int WIDEN_AFTER = 2; // adjustments in a row over budget before widening
+    public static final int NARROW_AFTER = 4; // adjustments in a row under NARROW_BELOW before narrowing
+    public static final long SPAWN_CPU = 300; // milliseconds of cpu for python to start and run cli.py once
+    public static final long WORKER_CPU = 20; // milliseconds of cpu for the worker to run one request
+    public static final int QUEUE_BACKLOG = HeartbeatDispatcher.QUEUE_CAPACITY / 4; // queue depth treated as overloaded
+
+    private final HeartbeatThrottle throttle;
+    private long lastNanos = System.nanoTime();
+    private long lastCpuNanos = sendCpuNanos();
+    private int over = 0;
+    private int under = 0;
+
+    public HeartbeatRate(HeartbeatThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Looks at the load since the last call and updates the throttle's
+     * interval. Called from the scheduler every ADJUST_INTERVAL.
+     */
+    public synchronized void adjust(int queueDepth) {
+        long now = System.nanoTime();
+        long cpu = sendCpuNanos();
+        double load = (double) (cpu - lastCpuNanos) / Math.max(1, now - lastNanos);
+        lastNanos = now;
+        lastCpuNanos = cpu;
+
+        over = load > CPU_BUDGET ? over + 1 : 0;
+        under = load < NARROW_BELOW && queueDepth == 0 ? under + 1 : 0;
+        long min = getMinInterval();
+        long max = getMaxInterval();
+        long current = throttle.getInterval();
+        long next = current;
+        if (over >= WIDEN_AFTER || queueDepth > QUEUE_BACKLOG) {
+            next = current * 2;
+            over = 0;
+        } else if (under >= NARROW_AFTER) {
+            next = current - current / 4;
+            under = 0;
+        }
+        next = Math.max(min, Math.min(max, next));
+        if (next != current) {
+            WakaTime.log.debug("Heartbeat interval " + current / 1000 + "s -> " + next / 1000 + "s, send cpu "
+                    + String.format("%.2f%%", load * 100) + ", queue depth " + queueDepth);
+            throttle.setInterval(next);
+        }
+    }
+
+    /**
+     * Milliseconds between heartbeats while idle.
+     */
+    public static long getMinInterval() {
+        return Math.max(1, ConfigFile.get().getLong("settings", "heartbeat_min_interval", WakaTime.FREQUENCY * 60)) * 1000;
+    }
+
+    /**
+     * Milliseconds between heartbeats under load, never below the minimum.
+     */
+    public static long getMaxInterval() {
+        long max = ConfigFile.get().getLong("settings", "heartbeat_max_interval", MAX_INTERVAL * 60) * 1000;
+        return Math.max(getMinInterval(), max);
+    }
+
+    // cpu nanoseconds spent sending so far, measured in the JVM and estimated for python
+    private static long sendCpuNanos() {
+        long python = Metrics.cliExit.getCount() * SPAWN_CPU + Metrics.workerResponse.getCount() * WORKER_CPU;
+        return WakaTime.getSenderCpuNanos() + python * 1000 * 1000;
+    }
+}
@@ -0,0 +1,126 @@
+/* ==========================================================
+File:        HeartbeatThrottle.java
+Description: Rate limits heartbeats separately for each file.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers when the last heartbeat was sent for each file, so editing
+ * two files in turn does not send a heartbeat on every switch. Updates
+ * are lock-free, and once the table holds more than maxEntries files the
+ * entries which can no longer throttle anything are evicted first.
+ */
+public class HeartbeatThrottle {
+
+    public static final int MAX_ENTRIES = 1000; // files remembered at once
+
+    private final ConcurrentHashMap<String, AtomicLong> lastTimes = new ConcurrentHashMap<String, AtomicLong>();
+    private volatile long interval;
+    private final int maxEntries;
+
+    /**
+     * @param interval milliseconds between heartbeats for the same file
+     */
+    public HeartbeatThrottle(long interval, int maxEntries) {
+        this.interval = interval;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns true and records currentTime when a heartbeat for the file
+     * is due, otherwise returns false without changing anything.
+     */
+    public boolean tryAcquire(String file, long currentTime) {
+        AtomicLong lastTime = lastTimes.get(file);
+        if (lastTime == null) {
+            lastTime = lastTimes.putIfAbsent(file, new AtomicLong(currentTime));
+            if (lastTime == null) {
+                evictIfFull(currentTime);
+                return true;
+            }
+        }
+        while (true) {
+            long last = lastTime.get();
+            if (last + interval > currentTime)
+                return false;
+            if (lastTime.compareAndSet(last, currentTime))
+                return true;
+        }
+    }
+
+    /**
+     * Records a heartbeat sent regardless of the throttle, such as on save.
+     */
+    public void update(String file, long currentTime) {
+        AtomicLong lastTime = lastTimes.get(file);
+        if (lastTime == null) {
+            lastTime = lastTimes.putIfAbsent(file, new AtomicLong(currentTime));
+            if (lastTime == null) {
+                evictIfFull(currentTime);
+                return;
+            }
+        }
+        while (true) {
+            long last = lastTime.get();
+            if (last >= currentTime || lastTime.compareAndSet(last, currentTime))
+                return;
+        }
+    }
+
+    /**
+     * Returns the earliest time a change heartbeat for the file can be sent.
+     */
+    public long nextEligibleTime(String file) {
+        AtomicLong lastTime = lastTimes.get(file);
+        return lastTime == null ? 0 : lastTime.get() + interval;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Changes the interval, which applies right away to every file.
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int size() {
+        return lastTimes.size();
+    }
+
+    private void evictIfFull(long currentTime) {
+        if (lastTimes.size() <= maxEntries)
+            return;
+        // entries older than the interval no longer throttle anything
+        Iterator<Map.Entry<String, AtomicLong>> it = lastTimes.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().get() + interval <= currentTime)
+                it.remove();
+        }
+        // still full, so forget the least recently used files
+        while (lastTimes.size() > maxEntries) {
+            String oldest = null;
+            long oldestTime = Long.MAX_VALUE;
+            for (Map.Entry<String, AtomicLong> entry : lastTimes.entrySet()) {
+                if (entry.getValue().get() < oldestTime) {
+                    oldest = entry.getKey();
+                    oldestTime = entry.getValue().get();
+                }
+            }
+            if (oldest == null)
+                return;
+            lastTimes.remove(oldest);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/* ==========================================================
+File:        HttpSender.java
+Description: Sends heartbeats to the WakaTime API without wakatime-cli.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Enabled with sender = native in the [settings] section of
+ * ~/.wakatime.cfg. Batches are posted straight to the bulk heartbeats
+ * endpoint of api_url, BULK_LIMIT heartbeats per gzipped request, one
+ * request after another over the kept-alive connection HttpURLConnection
+ * pools between batches, so python and wakatime-cli are neither
+ * installed nor started.
+ *
+ * Heartbeats sent this way carry only the file, time, whether it was a
+ * write and the project. The language, dependencies, line count, cursor
+ * position and git branch the cli would have worked out locally are not
+ * sent. A .wakatime-project file next to or above the file still sets
+ * the project and branch. Settings only the cli understands (proxy,
+ * hidefilenames, include_only_with_project_file and [projectmap]) keep
+ * heartbeats going through the cli, so they are never silently ignored.
+ */
+public class HttpSender {
+
+    public static final String DEFAULT_API_URL = "https://api.wakatime.com/api/v1";
+    public static final int BULK_LIMIT = 25; // heartbeats per request, the most the API accepts
+    public static final int CONNECT_TIMEOUT = 10; // seconds
+    public static final int READ_TIMEOUT = 30; // seconds
+
+    private static final String PROJECT_FILE = ".wakatime-project";
+
+    public static boolean isEnabled() {
+        ConfigFile config = ConfigFile.get();
+        return "native".equalsIgnoreCase(config.getString("settings", "sender", "cli").trim())
+                && config.getString("settings", "proxy", "").trim().isEmpty()
+                && !isSet(config.getString("settings", "hidefilenames", ""))
+                && !isSet(config.getString("settings", "hide_file_names", ""))
+                && !config.getBoolean("settings", "include_only_with_project_file", false)
+                && !config.hasSection("projectmap");
+    }
+
+    // true, or a list of patterns in newer cli versions
+    private static boolean isSet(String value) {
+        value = value.trim();
+        return !value.isEmpty() && !value.equalsIgnoreCase("false");
+    }
+
+    public static String getApiUrl() {
+        String url = ConfigFile.get().getString("settings", "api_url", "").trim();
+        if (url.isEmpty())
+            return DEFAULT_API_URL;
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Posts heartbeats from one plugin and returns those done with: the ones
+     * the API accepted and the ones it rejected for good, such as with 400 or
+     * 422, which are dropped and count a cli error. The rest stay in the
+     * journal to be sent again later, when the API could not be reached, or
+     * answered 401, 429 or a server error for the request or single
+     * heartbeats in it.
+     */
+    public static List<Heartbeat> send(List<Heartbeat> batch) {
+        ArrayList<Heartbeat> done = new ArrayList<Heartbeat>(batch.size());
+        for (int i = 0; i < batch.size(); i += BULK_LIMIT) {
+            if (!post(batch.subList(i, Math.min(batch.size(), i + BULK_LIMIT)), done))
+                break;
+        }
+        return done;
+    }
+
+    // adds the heartbeats done with, returning false when the request as a whole should be retried
+    private static boolean post(List<Heartbeat> heartbeats, List<Heartbeat> done) {
+        long started = System.nanoTime();
+        HttpURLConnection conn = null;
+        try {
+            byte[] body = gzip(toJSON(heartbeats));
+            conn = (HttpURLConnection) new URL(getApiUrl() + "/users/current/heartbeats.bulk").openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT * 1000);
+            conn.setReadTimeout(READ_TIMEOUT * 1000);
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestProperty("Authorization", "Basic " + base64(ApiKey.getApiKey().getBytes("UTF-8")));
+            conn.setRequestProperty("User-Agent", getUserAgent(heartbeats.get(0).getPlugin()));
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            conn.setRequestProperty("Accept", "application/json");
+            OutputStream out = conn.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            int status = conn.getResponseCode();
+            String response = drain(status >= 400 ? conn.getErrorStream() : conn.getInputStream());
+            Metrics.httpRequest.recordNanos(System.nanoTime() - started);
+            if (status == 201 || status == 202) {
+                log(status, response);
+                int[] statuses = statuses(response);
+                int rejected = 0;
+                int retried = 0;
+                for (int i = 0; i < heartbeats.size(); i++) {
+                    // the API answers with one status per heartbeat, in order
+                    if (statuses == null || i >= statuses.length || statuses[i] == 201 || statuses[i] == 202) {
+                        done.add(heartbeats.get(i));
+                    } else if (isRejected(statuses[i])) {
+                        done.add(heartbeats.get(i));
+                        rejected++;
+                    } else {
+                        retried++;
+                    }
+                }
+                if (rejected > 0 || retried > 0) {
+                    WakaTime.log.warn("WakaTime API rejected " + rejected + " and deferred " + retried + " of "
+                            + heartbeats.size() + " heartbeats: " + response);
+                    CliOutput.add("api", status + " " + response);
+                    if (rejected > 0)
+                        Metrics.cliErrors.incrementAndGet();
+                }
+                return true;
+            }
+            WakaTime.log.warn("WakaTime API responded " + status + " to " + heartbeats.size() + " heartbeats: " + response);
+            CliOutput.add("api", status + " " + response);
+            if (isRejected(status)) {
+                // sending the same request again would only be rejected again
+                done.addAll(heartbeats);
+                Metrics.cliErrors.incrementAndGet();
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            WakaTime.log.debug("Unable to reach the WakaTime API: " + e);
+            CliOutput.add("api", e.toString());
+            if (conn != null) {
+                // reads the error body so the connection can go back to the pool
+                try {
+                    drain(conn.getErrorStream());
+                } catch (IOException e1) { }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Whether the API refused a request or heartbeat for good, as with 400,
+     * 413 or 422, rather than for a missing api key, rate limiting or a
+     * failure on its side, which are worth retrying.
+     */
+    static boolean isRejected(int status) {
+        return status >= 400 && status < 500 && status != 401 && status != 408 && status != 429;
+    }
+
+    private static void log(int status, String response) {
+        if (WakaTime.DEBUG) {
+            WakaTime.log.debug("WakaTime API responded " + status + ": " + response);
+            CliOutput.add("api", status + " " + response);
+        }
+    }
+
+    public static String getUserAgent(String plugin) {
+        return "wakatime/" + WakaTime.VERSION + " (" + System.getProperty("os.name") + "-" + System.getProperty("os.version")
+                + "-" + System.getProperty("os.arch") + ") java/" + System.getProperty("java.version") + " " + plugin;
+    }
+
+    static String toJSON(List<Heartbeat> heartbeats) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < heartbeats.size(); i++) {
+            Heartbeat heartbeat = heartbeats.get(i);
+            String[] projectFile = readProjectFile(heartbeat.getEntity());
+            String project = projectFile[0] != null ? projectFile[0] : heartbeat.getProject();
+            if (i > 0)
+                sb.append(",");
+            sb.append("{\"entity\":\"").append(Heartbeat.jsonEscape(heartbeat.getEntity()));
+            sb.append("\",\"type\":\"file\",\"category\":\"coding\",\"time\":").append(heartbeat.getTimestampSeconds());
+            sb.append(",\"is_write\":").append(heartbeat.isWrite());
+            if (project != null)
+                sb.append(",\"project\":\"").append(Heartbeat.jsonEscape(project)).append("\"");
+            if (projectFile[1] != null)
+                sb.append(",\"branch\":\"").append(Heartbeat.jsonEscape(projectFile[1])).append("\"");
+            sb.append("}");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    /**
+     * Looks for a .wakatime-project file in the file's directory and its
+     * parents like the cli does, and returns its first line as the project
+     * and second line as the branch, each null when missing or empty.
+     */
+    static String[] readProjectFile(String entity) {
+        String[] projectFile = new String[2];
+        File dir = new File(entity).getParentFile();
+        while (dir != null) {
+            File file = new File(dir, PROJECT_FILE);
+            if (file.isFile()) {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                    try {
+                        for (int i = 0; i < projectFile.length; i++) {
+                            String line = reader.readLine();
+                            if (line != null && !line.trim().isEmpty())
+                                projectFile[i] = line.trim();
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                } catch (IOException e) {
+                    WakaTime.log.debug(e);
+                }
+                break;
+            }
+            dir = dir.getParentFile();
+        }
+        return projectFile;
+    }
+
+    /**
+     * Returns the status of each heartbeat in a bulk response, which looks
+     * like {"responses": [[{"data": ...}, 201], [{"errors": ...}, 400]]},
+     * or null when the response holds none.
+     */
+    static int[] statuses(String response) {
+        int start = response.indexOf("\"responses\"");
+        if (start < 0)
+            return null;
+        start = response.indexOf('[', start);
+        if (start < 0)
+            return null;
+        ArrayList<Integer> statuses = new ArrayList<Integer>();
+        int depth = 0;
+        for (int i = start; i < response.length(); i++) {
+            char c = response.charAt(i);
+            if (c == '"') {
+                // skips the string, along with any brackets or digits in it
+                for (i++; i < response.length() && response.charAt(i) != '"'; i++) {
+                    if (response.charAt(i) == '\\')
+                        i++;
+                }
+            } else if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                if (--depth == 0)
+                    break;
+            } else if (depth == 2 && Character.isDigit(c)) {
+                // a number directly inside a [response, status] pair
+                int end = i;
+                while (end < response.length() && Character.isDigit(response.charAt(end)))
+                    end++;
+                statuses.add(Integer.parseInt(response.substring(i, end)));
+                i = end - 1;
+            }
+        }
+        int[] result = new int[statuses.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = statuses.get(i);
+        }
+        return result;
+    }
+
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(json.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    // javax.xml.bind is gone from newer IDE runtimes, and java.util.Base64 from older ones
+    static String base64(byte[] bytes) {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xff) << 16;
+            if (i + 1 < bytes.length)
+                n |= (bytes[i + 1] & 0xff) << 8;
+            if (i + 2 < bytes.length)
+                n |= bytes[i + 2] & 0xff;
+            sb.append(alphabet.charAt(n >> 18 & 63));
+            sb.append(alphabet.charAt(n >> 12 & 63));
+            sb.append(i + 1 < bytes.length ? alphabet.charAt(n >> 6 & 63) : '=');
+            sb.append(i + 2 < bytes.length ? alphabet.charAt(n & 63) : '=');
+        }
+        return sb.toString();
+    }
+
+    private static String drain(InputStream in) throws IOException {
+        if (in == null)
+            return "";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes.toString("UTF-8");
+    }
+}
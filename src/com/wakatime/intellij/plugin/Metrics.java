@@ -0,0 +1,234 @@
+/* ==========================================================
+File:        Metrics.java
+Description: Counters and latencies of the heartbeat pipeline.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what happens to heartbeats from the keystroke to wakatime-cli
+ * and how long the cli takes. Counters are bumped in place by the code
+ * doing the work, queue and journal sizes are read when asked for. The
+ * same numbers are registered over JMX as
+ * com.wakatime.intellij.plugin:type=Metrics and shown in the WakaTime
+ * Diagnostics dialog.
+ */
+public class Metrics implements MetricsMBean {
+
+    public static final String OBJECT_NAME = "com.wakatime.intellij.plugin:type=Metrics";
+
+    public static final AtomicLong generated = new AtomicLong(); // heartbeats created
+    public static final AtomicLong throttled = new AtomicLong(); // keystrokes within the heartbeat interval of the last heartbeat
+    public static final AtomicLong filtered = new AtomicLong(); // keystrokes in files which are never logged
+    public static final AtomicLong sent = new AtomicLong(); // heartbeats handed to wakatime-cli
+    public static final AtomicLong failed = new AtomicLong(); // heartbeats whose send gave up, left in the journal
+    public static final AtomicLong retries = new AtomicLong(); // cli spawns retried after an error
+    public static final AtomicLong discarded = new AtomicLong(); // unsent heartbeats deleted from a full journal
+    public static final AtomicLong cliErrors = new AtomicLong(); // cli runs which exited non-zero
+    public static final AtomicLong workerCrashes = new AtomicLong();
+    public static final AtomicLong forwarded = new AtomicLong(); // heartbeats sent to another IDE's broker
+    public static final AtomicLong bulkChanges = new AtomicLong(); // changes and saves collapsed into one heartbeat per project
+    public static final AtomicLong deduplicated = new AtomicLong(); // heartbeats the broker already had from another IDE
+
+    public static final LatencyHistogram cliSpawn = new LatencyHistogram(); // starting a cli.py process
+    public static final LatencyHistogram cliExit = new LatencyHistogram(); // from starting cli.py until it exits
+    public static final LatencyHistogram workerResponse = new LatencyHistogram(); // one request to the cli worker
+    public static final LatencyHistogram httpRequest = new LatencyHistogram(); // one bulk request straight to the api
+
+    private static ObjectName registered;
+
+    public static synchronized void register() {
+        if (registered != null)
+            return;
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new Metrics(), name);
+            registered = name;
+        } catch (Exception e) {
+            WakaTime.log.warn("Unable to register WakaTime metrics with JMX: " + e);
+        }
+    }
+
+    public static synchronized void unregister() {
+        if (registered == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        } catch (Exception e) {
+            WakaTime.log.debug(e);
+        }
+        registered = null;
+    }
+
+    public long getHeartbeatsGenerated() {
+        return generated.get();
+    }
+
+    public long getHeartbeatsThrottled() {
+        return throttled.get();
+    }
+
+    public long getHeartbeatsFiltered() {
+        return filtered.get();
+    }
+
+    public long getHeartbeatsSent() {
+        return sent.get();
+    }
+
+    public long getHeartbeatsFailed() {
+        return failed.get();
+    }
+
+    public long getSendRetries() {
+        return retries.get();
+    }
+
+    public long getHeartbeatsDropped() {
+        return WakaTime.getDroppedCount();
+    }
+
+    public long getHeartbeatsCoalesced() {
+        return WakaTime.getCoalescedCount();
+    }
+
+    public long getHeartbeatsDiscarded() {
+        return discarded.get();
+    }
+
+    public int getQueueDepth() {
+        return WakaTime.getQueueDepth();
+    }
+
+    public int getJournalPending() {
+        return WakaTime.getJournalPending();
+    }
+
+    public long getCliErrors() {
+        return cliErrors.get();
+    }
+
+    public long getWorkerCrashes() {
+        return workerCrashes.get();
+    }
+
+    public long getBulkChanges() {
+        return bulkChanges.get();
+    }
+
+    public long getHeartbeatsForwarded() {
+        return forwarded.get();
+    }
+
+    public long getHeartbeatsDeduplicated() {
+        return deduplicated.get();
+    }
+
+    public long getCliSpawnP50Millis() {
+        return cliSpawn.getPercentileMicros(50) / 1000;
+    }
+
+    public long getCliSpawnP99Millis() {
+        return cliSpawn.getPercentileMicros(99) / 1000;
+    }
+
+    public long getCliExitP50Millis() {
+        return cliExit.getPercentileMicros(50) / 1000;
+    }
+
+    public long getCliExitP99Millis() {
+        return cliExit.getPercentileMicros(99) / 1000;
+    }
+
+    public long getCliExitMaxMillis() {
+        return cliExit.getMaxMicros() / 1000;
+    }
+
+    public long getWorkerResponseP50Millis() {
+        return workerResponse.getPercentileMicros(50) / 1000;
+    }
+
+    public long getWorkerResponseP99Millis() {
+        return workerResponse.getPercentileMicros(99) / 1000;
+    }
+
+    public long getHeartbeatIntervalSeconds() {
+        return WakaTime.throttle.getInterval() / 1000;
+    }
+
+    public long getHttpRequestP50Millis() {
+        return httpRequest.getPercentileMicros(50) / 1000;
+    }
+
+    public long getHttpRequestP99Millis() {
+        return httpRequest.getPercentileMicros(99) / 1000;
+    }
+
+    public String getStartupPhase() {
+        return Startup.getPhase().name();
+    }
+
+    public long getInitComponentMillis() {
+        return Startup.getMillis(Startup.Phase.INITIALIZING);
+    }
+
+    public long getStartupMillis() {
+        return Startup.getTotalMillis();
+    }
+
+    public String getProjectQueues() {
+        return WakaTime.getProjectSummary();
+    }
+
+    public String getSummary() {
+        return summary();
+    }
+
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Startup\n");
+        sb.append(Startup.summary());
+        sb.append("\nHeartbeats\n");
+        sb.append("  generated:   ").append(generated.get()).append("\n");
+        sb.append("  sent:        ").append(sent.get()).append("\n");
+        sb.append("  throttled:   ").append(throttled.get()).append("\n");
+        sb.append("  filtered:    ").append(filtered.get()).append("\n");
+        sb.append("  coalesced:   ").append(WakaTime.getCoalescedCount()).append("\n");
+        sb.append("  bulk:        ").append(bulkChanges.get()).append(" changes collapsed\n");
+        sb.append("  failed:      ").append(failed.get()).append("\n");
+        sb.append("  retries:     ").append(retries.get()).append("\n");
+        sb.append("  dropped:     ").append(WakaTime.getDroppedCount()).append(" (still in the journal)\n");
+        sb.append("  discarded:   ").append(discarded.get()).append(" (lost)\n");
+        sb.append("  interval:    ").append(WakaTime.throttle.getInterval() / 1000).append(" s\n");
+        sb.append("\nProjects\n");
+        sb.append(WakaTime.getProjectSummary());
+        sb.append("\nBroker\n");
+        sb.append("  role:         ").append(Broker.isOwner() ? "owner" : Broker.isClient() ? "client" : "none").append("\n");
+        sb.append("  clients:      ").append(Broker.getClientCount()).append("\n");
+        sb.append("  forwarded:    ").append(forwarded.get()).append("\n");
+        sb.append("  deduplicated: ").append(deduplicated.get()).append("\n");
+        sb.append("\nQueues\n");
+        sb.append("  queue depth:     ").append(WakaTime.getQueueDepth()).append("\n");
+        sb.append("  journal pending: ").append(WakaTime.getJournalPending()).append("\n");
+        sb.append("  before startup:  ").append(WakaTime.getStartupBacklog()).append("\n");
+        sb.append("\nwakatime-cli\n");
+        sb.append("  spawn:  ").append(cliSpawn.summary()).append("\n");
+        sb.append("  exit:   ").append(cliExit.summary()).append("\n");
+        sb.append("  worker: ").append(workerResponse.summary()).append("\n");
+        sb.append("  api:    ").append(httpRequest.summary()).append("\n");
+        sb.append("  non-zero exits: ").append(cliErrors.get()).append("\n");
+        sb.append("  worker crashes: ").append(workerCrashes.get()).append("\n");
+        return sb.toString();
+    }
+}
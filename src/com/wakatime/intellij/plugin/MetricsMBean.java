@@ -0,0 +1,74 @@
+/* ==========================================================
+File:        MetricsMBean.java
+Description: JMX view of the heartbeat pipeline metrics.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+public interface MetricsMBean {
+
+    long getHeartbeatsGenerated();
+
+    long getHeartbeatsThrottled();
+
+    long getHeartbeatsFiltered();
+
+    long getHeartbeatsSent();
+
+    long getHeartbeatsFailed();
+
+    long getSendRetries();
+
+    long getHeartbeatsDropped();
+
+    long getHeartbeatsCoalesced();
+
+    long getHeartbeatsDiscarded();
+
+    int getQueueDepth();
+
+    int getJournalPending();
+
+    long getCliErrors();
+
+    long getWorkerCrashes();
+
+    long getBulkChanges();
+
+    long getHeartbeatsForwarded();
+
+    long getHeartbeatsDeduplicated();
+
+    long getCliSpawnP50Millis();
+
+    long getCliSpawnP99Millis();
+
+    long getCliExitP50Millis();
+
+    long getCliExitP99Millis();
+
+    long getCliExitMaxMillis();
+
+    long getWorkerResponseP50Millis();
+
+    long getWorkerResponseP99Millis();
+
+    long getHttpRequestP50Millis();
+
+    long getHttpRequestP99Millis();
+
+    long getHeartbeatIntervalSeconds();
+
+    String getStartupPhase();
+
+    long getInitComponentMillis();
+
+    long getStartupMillis();
+
+    String getProjectQueues();
+
+    String getSummary();
+}
@@ -0,0 +1,227 @@
+/* ==========================================================
+File:        PathFilter.java
+Description: Include and exclude rules for which files are logged.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides whether heartbeats are sent for a file, from rules in the
+ * [settings] section of ~/.wakatime.cfg, one rule per line:
+ *
+ *   exclude = regular expressions, searched case-insensitively like wakatime-cli
+ *   include = regular expressions which win over exclude
+ *   exclude_glob = case-sensitive globs where * and ? stay within a directory
+ *                  and ** crosses them
+ *   include_glob = globs which win over exclude and exclude_glob
+ *
+ * Globs starting with / are matched against the whole path, others
+ * against any trailing part of it. Each side is compiled once per config
+ * snapshot into a trie of absolute directory prefixes, like
+ * /home/me/repo/vendor/**, plus one alternation of all the rest. The trie
+ * walk costs one step per directory of the path, however many prefixes
+ * there are, but java.util.regex tries the alternatives one after another
+ * at each position, so the rest still costs more with each rule; joining
+ * them only saves compiling and calling a pattern per rule. Decisions are
+ * cached per path, so that cost is paid once for each file.
+ */
+public class PathFilter {
+
+    public static final int MAX_CACHED_PATHS = 10000;
+
+    private static volatile PathFilter current;
+
+    private final ConfigFile config;
+    private final Rules include;
+    private final Rules exclude;
+    private final ConcurrentHashMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+
+    private PathFilter(ConfigFile config) {
+        this.config = config;
+        this.include = Rules.compile(lines(config, "include"), lines(config, "include_glob"));
+        this.exclude = Rules.compile(lines(config, "exclude"), lines(config, "exclude_glob"));
+    }
+
+    /**
+     * Returns the filter for the current config, compiling it again only
+     * after the config file changed.
+     */
+    public static PathFilter get() {
+        ConfigFile config = ConfigFile.get();
+        PathFilter filter = current;
+        if (filter == null || filter.config != config) {
+            filter = new PathFilter(config);
+            current = filter;
+        }
+        return filter;
+    }
+
+    public boolean shouldLog(String path) {
+        Boolean decision = cache.get(path);
+        if (decision == null) {
+            decision = include.matches(path) || !exclude.matches(path);
+            if (cache.size() >= MAX_CACHED_PATHS)
+                cache.clear();
+            cache.put(path, decision);
+        }
+        return decision;
+    }
+
+    private static List<String> lines(ConfigFile config, String key) {
+        ArrayList<String> lines = new ArrayList<String>();
+        String value = config.getString("settings", key);
+        if (value == null)
+            return lines;
+        for (String line : value.split("\n")) {
+            line = line.trim();
+            if (!line.isEmpty())
+                lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * One side of the filter: a prefix trie and a combined pattern.
+     */
+    static class Rules {
+        private final Node prefixes;
+        private final Pattern pattern;
+
+        private Rules(Node prefixes, Pattern pattern) {
+            this.prefixes = prefixes;
+            this.pattern = pattern;
+        }
+
+        static Rules compile(List<String> regexes, List<String> globs) {
+            Node prefixes = null;
+            StringBuilder combined = new StringBuilder();
+            for (String regex : regexes) {
+                try {
+                    Pattern.compile(regex);
+                } catch (PatternSyntaxException e) {
+                    WakaTime.log.warn("Ignoring invalid regex in " + WakaTime.CONFIG + ": " + regex);
+                    continue;
+                }
+                append(combined, regex);
+            }
+            for (String glob : globs) {
+                String prefix = directoryPrefix(glob);
+                if (prefix != null) {
+                    if (prefixes == null)
+                        prefixes = new Node();
+                    prefixes.add(prefix);
+                } else {
+                    // globs match case-sensitively, like the paths they name
+                    append(combined, "(?-i:" + globToRegex(glob) + ")");
+                }
+            }
+            Pattern pattern = combined.length() == 0 ? null : Pattern.compile(combined.toString(), Pattern.CASE_INSENSITIVE);
+            return new Rules(prefixes, pattern);
+        }
+
+        boolean matches(String path) {
+            if (prefixes != null && prefixes.matchesPrefixOf(path))
+                return true;
+            return pattern != null && pattern.matcher(path).find();
+        }
+
+        private static void append(StringBuilder combined, String regex) {
+            if (combined.length() > 0)
+                combined.append("|");
+            combined.append("(?:").append(regex).append(")");
+        }
+
+        /**
+         * Returns the literal directory of a glob like /a/b/** or /a/b/,
+         * or null when the glob needs the pattern.
+         */
+        static String directoryPrefix(String glob) {
+            if (!glob.startsWith("/"))
+                return null;
+            String dir;
+            if (glob.endsWith("/**"))
+                dir = glob.substring(0, glob.length() - 2);
+            else if (glob.endsWith("/"))
+                dir = glob;
+            else
+                return null;
+            for (int i = 0; i < dir.length(); i++) {
+                char c = dir.charAt(i);
+                if (c == '*' || c == '?' || c == '[')
+                    return null;
+            }
+            return dir;
+        }
+
+        static String globToRegex(String glob) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(glob.startsWith("/") ? "^" : "(?:^|/)");
+            int i = glob.startsWith("/") ? 0 : (glob.startsWith("**/") ? 3 : 0);
+            for (; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        sb.append(".*");
+                        i++;
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                } else if (c == '?') {
+                    sb.append("[^/]");
+                } else {
+                    if ("\\.[]{}()+-^$|".indexOf(c) >= 0)
+                        sb.append('\\');
+                    sb.append(c);
+                }
+            }
+            // a glob naming a directory covers everything inside it
+            sb.append(glob.endsWith("/") ? "" : "(?:/|$)");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A character trie of directory prefixes.
+     */
+    static class Node {
+        private final Map<Character, Node> children = new HashMap<Character, Node>();
+        private boolean terminal = false;
+
+        void add(String prefix) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+
+        boolean matchesPrefixOf(String path) {
+            Node node = this;
+            for (int i = 0; i < path.length(); i++) {
+                node = node.children.get(path.charAt(i));
+                if (node == null)
+                    return false;
+                if (node.terminal)
+                    return true;
+            }
+            return false;
+        }
+    }
+}
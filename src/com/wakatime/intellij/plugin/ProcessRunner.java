@@ -0,0 +1,136 @@
+/* ==========================================================
+File:        ProcessRunner.java
+Description: Runs a process with its output drained in the background.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Starts a process, writes its stdin, and reads stdout and stderr on
+ * pooled daemon threads while waiting for it to exit, so a process
+ * filling a pipe can never block it or the caller. Every line goes to
+ * CliOutput. A process still running after the timeout is killed.
+ */
+public class ProcessRunner {
+
+    public static final int MAX_CAPTURE = 64 * 1024; // characters of output returned to the caller
+    public static final long DRAIN_TIMEOUT = 1; // seconds to finish reading output after exit
+
+    private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "WakaTime process output");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public static class Result {
+        public final Integer exitCode; // null when killed after the timeout
+        public final String output; // stdout followed by stderr
+        public final long spawnNanos;
+        public final long runNanos;
+
+        Result(Integer exitCode, String output, long spawnNanos, long runNanos) {
+            this.exitCode = exitCode;
+            this.output = output;
+            this.spawnNanos = spawnNanos;
+            this.runNanos = runNanos;
+        }
+
+        public boolean timedOut() {
+            return exitCode == null;
+        }
+    }
+
+    /**
+     * Runs the command to completion, or kills it after timeout seconds or
+     * when the calling thread is interrupted.
+     *
+     * @param input written to stdin before closing it, may be null
+     * @param source label for the lines kept in CliOutput
+     */
+    public static Result run(String[] cmds, String input, long timeout, String source) throws IOException {
+        long started = System.nanoTime();
+        final Process process = new ProcessBuilder(cmds).start();
+        long spawned = System.nanoTime();
+        Future<String> stdout = pool.submit(pump(process.getInputStream(), source));
+        Future<String> stderr = pool.submit(pump(process.getErrorStream(), source));
+        Future<Integer> exit = pool.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return process.waitFor();
+            }
+        });
+        Integer exitCode = null;
+        try {
+            Writer stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+            try {
+                if (input != null)
+                    stdin.write(input);
+            } finally {
+                stdin.close();
+            }
+        } catch (IOException e) {
+            // exited without reading its input, the exit code tells why
+            WakaTime.log.debug(e);
+        }
+        try {
+            exitCode = exit.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            WakaTime.log.warn("Killing " + source + " after " + timeout + " seconds");
+            CliOutput.add(source, "killed after " + timeout + " seconds");
+        } catch (ExecutionException e) {
+            WakaTime.log.debug(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (exitCode == null) {
+                // it already overran its timeout, so it is not asked to exit first
+                process.destroyForcibly();
+                exit.cancel(true);
+            }
+        }
+        long finished = System.nanoTime();
+        String output = collect(stdout) + collect(stderr);
+        return new Result(exitCode, output, spawned - started, finished - started);
+    }
+
+    private static Callable<String> pump(final InputStream stream, final String source) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                StringBuilder captured = new StringBuilder();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        CliOutput.add(source, line);
+                        if (captured.length() < MAX_CAPTURE)
+                            captured.append(line).append("\n");
+                    }
+                } catch (IOException e) {
+                    // closed when the process was killed
+                } finally {
+                    reader.close();
+                }
+                return captured.toString();
+            }
+        };
+    }
+
+    private static String collect(Future<String> pump) {
+        try {
+            return pump.get(DRAIN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // a child process may still hold the pipe open, give up on the rest
+            pump.cancel(true);
+        }
+        return "";
+    }
+}
@@ -0,0 +1,127 @@
+/* ==========================================================
+File:        ProjectResolver.java
+Description: Finds the open project which owns an edited file.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.project.ProjectManagerAdapter;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps a file to the name of the open project whose content roots contain
+ * it. Results are cached per directory and the cache is cleared whenever a
+ * project is opened or closed or its roots change.
+ */
+public class ProjectResolver {
+
+    public static final int MAX_CACHED_DIRECTORIES = 1000;
+
+    // marks directories which belong to no open project
+    private static final String NO_PROJECT = "";
+
+    private static final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<String, String>();
+    private static boolean listening = false;
+
+    /**
+     * Subscribes to project and root changes. Must be called on the EDT.
+     */
+    public static void setup() {
+        if (listening)
+            return;
+        listening = true;
+        ProjectManager.getInstance().addProjectManagerListener(new ProjectManagerAdapter() {
+            @Override
+            public void projectOpened(Project project) {
+                listenForRootChanges(project);
+                invalidate();
+            }
+
+            @Override
+            public void projectClosed(Project project) {
+                invalidate();
+            }
+        });
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            listenForRootChanges(project);
+        }
+        invalidate();
+    }
+
+    public static void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the owning project's name, or null when no open project
+     * contains the file. Must be called with read access, such as on
+     * the EDT from a document or save listener.
+     */
+    public static String getProjectName(VirtualFile file) {
+        VirtualFile dir = file.isDirectory() ? file : file.getParent();
+        if (dir == null)
+            return fallbackProjectName();
+        String key = dir.getPath();
+        String name = cache.get(key);
+        if (name == null) {
+            Project project = findProject(file);
+            name = project == null ? NO_PROJECT : project.getName();
+            if (cache.size() >= MAX_CACHED_DIRECTORIES)
+                cache.clear();
+            cache.put(key, name);
+        }
+        if (name.equals(NO_PROJECT))
+            return fallbackProjectName();
+        return name;
+    }
+
+    private static Project findProject(VirtualFile file) {
+        Project[] projects = ProjectManager.getInstance().getOpenProjects();
+        for (Project project : projects) {
+            if (project.isDisposed())
+                continue;
+            ProjectFileIndex index = ProjectRootManager.getInstance(project).getFileIndex();
+            if (index.isInContent(file))
+                return project;
+        }
+        // files outside content roots, like .idea files, still belong to the project directory
+        for (Project project : projects) {
+            if (project.isDisposed())
+                continue;
+            VirtualFile baseDir = project.getBaseDir();
+            if (baseDir != null && VfsUtil.isAncestor(baseDir, file, false))
+                return project;
+        }
+        return null;
+    }
+
+    private static String fallbackProjectName() {
+        // with a single project open there is nothing to choose from
+        Project[] projects = ProjectManager.getInstance().getOpenProjects();
+        if (projects.length == 1)
+            return projects[0].getName();
+        return null;
+    }
+
+    private static void listenForRootChanges(Project project) {
+        project.getMessageBus().connect(project).subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
+            @Override
+            public void rootsChanged(ModuleRootEvent event) {
+                invalidate();
+            }
+        });
+    }
+}
@@ -0,0 +1,226 @@
+/* ==========================================================
+File:        PythonLocator.java
+Description: Finds a working python binary and remembers it.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.sun.jna.platform.win32.WinReg;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Probes every candidate python binary in parallel with "--version" and
+ * picks the first candidate, in priority order, which printed a python
+ * version. The winner is saved along with the size and modification time
+ * of its binary, so later startups only stat one file instead of probing
+ * again.
+ */
+public class PythonLocator {
+
+    public static final long PROBE_TIMEOUT = 5; // seconds to wait for all candidates
+    public static final int PROBE_THREADS = 8;
+
+    private static final String CACHE_FILE = "python.properties";
+    private static final Pattern VERSION = Pattern.compile("Python ([0-9]+\\.[0-9]+(\\.[0-9]+)?)");
+
+    public static String find() {
+        String cached = loadCached();
+        if (cached != null) {
+            WakaTime.log.debug("Using saved python binary: " + cached);
+            return cached;
+        }
+        List<String> candidates = candidates();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(PROBE_THREADS, candidates.size()), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "WakaTime python probe");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ArrayList<Future<String>> futures = new ArrayList<Future<String>>();
+        for (final String candidate : candidates) {
+            futures.add(pool.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return probe(candidate);
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + PROBE_TIMEOUT * 1000;
+        try {
+            for (int i = 0; i < candidates.size(); i++) {
+                try {
+                    long wait = Math.max(0, deadline - System.currentTimeMillis());
+                    String version = futures.get(i).get(wait, TimeUnit.MILLISECONDS);
+                    if (version != null) {
+                        String location = candidates.get(i);
+                        WakaTime.log.debug("Found python " + version + " binary: " + location);
+                        save(location, version);
+                        return location;
+                    }
+                } catch (TimeoutException e) {
+                    WakaTime.log.debug("Timed out probing " + candidates.get(i));
+                } catch (ExecutionException e) {
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            // interrupts the probes still running, which kills their processes
+            pool.shutdownNow();
+        }
+        return null;
+    }
+
+    /**
+     * Runs "python --version" and returns the version printed, or null.
+     */
+    static String probe(String command) {
+        File binary = resolve(command);
+        if (new File(command).isAbsolute() && binary == null)
+            return null;
+        ProcessRunner.Result result;
+        try {
+            result = ProcessRunner.run(new String[] {command, "--version"}, null, PROBE_TIMEOUT, "python");
+        } catch (IOException e) {
+            return null;
+        }
+        if (result.exitCode == null || result.exitCode != 0)
+            return null;
+        // python 2 prints its version to stderr, python 3 to stdout
+        Matcher m = VERSION.matcher(result.output);
+        return m.find() ? m.group(1) : null;
+    }
+
+    private static List<String> candidates() {
+        ArrayList<String> paths = new ArrayList<String>();
+        paths.add(null);
+        paths.add("/");
+        paths.add("/usr/local/bin/");
+        paths.add("/usr/bin/");
+        if (System.getProperty("os.name").contains("Windows")) {
+            File resourcesLocation = new File(Dependencies.getResourcesLocation());
+            paths.add(Dependencies.combinePaths(resourcesLocation.getAbsolutePath(), "python"));
+            paths.add(Dependencies.getPythonFromRegistry(WinReg.HKEY_CURRENT_USER));
+            paths.add(Dependencies.getPythonFromRegistry(WinReg.HKEY_LOCAL_MACHINE));
+            for (String version : new String[] {"39", "38", "37", "36", "35", "34", "33", "27", "26"}) {
+                paths.add("/python" + version);
+                paths.add("/Python" + version);
+            }
+        }
+        ArrayList<String> candidates = new ArrayList<String>();
+        for (String path : paths) {
+            String pythonw = Dependencies.combinePaths(path, "pythonw");
+            String python = Dependencies.combinePaths(path, "python");
+            if (!candidates.contains(pythonw))
+                candidates.add(pythonw);
+            if (!candidates.contains(python))
+                candidates.add(python);
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the binary a command runs, searching PATH for bare names.
+     */
+    private static File resolve(String command) {
+        ArrayList<File> dirs = new ArrayList<File>();
+        if (new File(command).isAbsolute() || command.contains(File.separator) || command.contains("/")) {
+            File file = new File(command);
+            dirs.add(file.getParentFile());
+            command = file.getName();
+        } else {
+            String path = System.getenv("PATH");
+            if (path != null) {
+                for (String dir : path.split(File.pathSeparator)) {
+                    if (!dir.isEmpty())
+                        dirs.add(new File(dir));
+                }
+            }
+        }
+        for (File dir : dirs) {
+            File file = new File(dir, command);
+            if (file.isFile())
+                return file;
+            file = new File(dir, command + ".exe");
+            if (file.isFile())
+                return file;
+        }
+        return null;
+    }
+
+    private static File cacheFile() {
+        return new File(Dependencies.getResourcesLocation(), CACHE_FILE);
+    }
+
+    private static String loadCached() {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(cacheFile());
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { }
+            }
+        }
+        String location = props.getProperty("location");
+        String version = props.getProperty("version");
+        if (location == null || version == null)
+            return null;
+        File binary = resolve(location);
+        if (binary != null && String.valueOf(binary.lastModified()).equals(props.getProperty("modified"))
+                && String.valueOf(binary.length()).equals(props.getProperty("size"))
+                && binary.getAbsolutePath().equals(props.getProperty("binary"))) {
+            return location;
+        }
+        // the binary changed, so make sure it still runs before trusting it
+        String current = probe(location);
+        if (current == null)
+            return null;
+        save(location, current);
+        return location;
+    }
+
+    private static void save(String location, String version) {
+        Properties props = new Properties();
+        props.setProperty("location", location);
+        props.setProperty("version", version);
+        File binary = resolve(location);
+        if (binary != null) {
+            props.setProperty("binary", binary.getAbsolutePath());
+            props.setProperty("modified", String.valueOf(binary.lastModified()));
+            props.setProperty("size", String.valueOf(binary.length()));
+        }
+        File file = cacheFile();
+        if (!file.getParentFile().exists())
+            file.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            props.store(out, "python binary used by WakaTime");
+        } catch (IOException e) {
+            WakaTime.log.debug(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+}
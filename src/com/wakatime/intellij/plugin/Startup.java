@@ -0,0 +1,96 @@
+/* ==========================================================
+File:        Startup.java
+Description: Tracks the plugin's startup phases and their timings.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The plugin starts in INITIALIZING, which is the only phase run on the
+ * IDE's component init thread, then moves through the background phases
+ * until it is READY to send heartbeats, a CLIENT of another IDE's Broker,
+ * or FAILED when python or wakatime-cli could not be installed. The time
+ * spent in each phase is kept so the startup cost can be checked from the
+ * diagnostics dialog or over JMX.
+ */
+public class Startup {
+
+    public enum Phase {
+        INITIALIZING, // initComponent, on the IDE's thread
+        CONFIG, // reading ~/.wakatime.cfg and watching it
+        BROKER, // connecting to or starting the broker shared with other IDEs
+        CLIENT, // forwarding heartbeats to another IDE's broker
+        PYTHON, // finding or installing python
+        CLI, // checking, installing or upgrading wakatime-cli
+        READY,
+        FAILED
+    }
+
+    private static final Map<Phase, Long> durations = new EnumMap<Phase, Long>(Phase.class);
+    private static Phase phase = Phase.INITIALIZING;
+    private static long phaseStarted = System.nanoTime();
+    private static long started = phaseStarted;
+    private static long total = -1;
+
+    /**
+     * Marks the start of the plugin, which is also the start of INITIALIZING.
+     */
+    public static synchronized void begin() {
+        durations.clear();
+        phase = Phase.INITIALIZING;
+        phaseStarted = System.nanoTime();
+        started = phaseStarted;
+        total = -1;
+    }
+
+    /**
+     * Ends the current phase, recording how long it took, and starts the next.
+     */
+    public static synchronized void enter(Phase next) {
+        long now = System.nanoTime();
+        Long previous = durations.get(phase);
+        durations.put(phase, (previous == null ? 0 : previous) + now - phaseStarted);
+        WakaTime.log.debug("Startup phase " + phase + " took " + (now - phaseStarted) / 1000000 + " ms");
+        phase = next;
+        phaseStarted = now;
+        if (next == Phase.READY || next == Phase.FAILED || next == Phase.CLIENT)
+            total = now - started;
+    }
+
+    public static synchronized Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Milliseconds spent in a finished phase, or -1 if it has not finished.
+     */
+    public static synchronized long getMillis(Phase p) {
+        Long nanos = durations.get(p);
+        return nanos == null ? -1 : nanos / 1000000;
+    }
+
+    /**
+     * Milliseconds from initComponent until READY or FAILED, or -1 while starting.
+     */
+    public static synchronized long getTotalMillis() {
+        return total < 0 ? -1 : total / 1000000;
+    }
+
+    public static synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("  phase: ").append(phase).append("\n");
+        for (Map.Entry<Phase, Long> entry : durations.entrySet()) {
+            sb.append("  ").append(entry.getKey().name().toLowerCase()).append(": ")
+                    .append(entry.getValue() / 1000000).append(" ms\n");
+        }
+        if (total >= 0)
+            sb.append("  total: ").append(total / 1000000).append(" ms\n");
+        return sb.toString();
+    }
+}
@@ -9,7 +9,6 @@ Website:     https://wakatime.com/
 package com.wakatime.intellij.plugin;
 
 import com.intellij.AppTopics;
-import com.intellij.ide.DataManager;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.application.ApplicationInfo;
 import com.intellij.openapi.application.ApplicationManager;
@@ -25,15 +24,27 @@ import com.intellij.util.messages.MessageBusConnection;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Level;
 
 public class WakaTime implements ApplicationComponent {
 
     public static final String VERSION = "6.0.1";
     public static final String CONFIG = ".wakatime.cfg";
-    public static final long FREQUENCY = 2; // minutes between pings
+    public static final long FREQUENCY = 2; // default minutes between pings, widened by HeartbeatRate under load
+    public static final long QUEUE_TIMEOUT = 10; // default seconds to collect and merge heartbeats into one batch
+    public static final int MAX_BATCH_SIZE = 50; // heartbeats sent per wakatime-cli process
+    public static final int PROJECT_RATE_LIMIT = 30; // default heartbeats per minute sent for one project
+    public static final long WORKER_HEALTH_CHECK = 1; // minutes between wakatime-cli worker health checks
+    public static final long JOURNAL_DRAIN = 1; // minutes between resending heartbeats left in the journal
+    public static final long CLI_TIMEOUT = 60; // seconds before a wakatime-cli process is killed
     public static final Logger log = Logger.getInstance("WakaTime");
 
     public static String IDE_NAME;
@@ -41,14 +52,23 @@ public class WakaTime implements ApplicationComponent {
     public static MessageBusConnection connection;
     public static Boolean DEBUG = false;
 
-    public static Boolean READY = false;
-    public static String lastFile = null;
-    public static long lastTime = 0;
+    public static volatile Boolean READY = false;
+    public static final HeartbeatThrottle throttle = new HeartbeatThrottle(FREQUENCY * 60 * 1000, HeartbeatThrottle.MAX_ENTRIES);
+    public static final HeartbeatRate rate = new HeartbeatRate(throttle);
+
+    private static HeartbeatDispatcher dispatcher;
+    private static volatile HeartbeatJournal journal;
+    private static ScheduledExecutorService scheduler;
+    private static volatile CliWorker worker;
+    private static boolean sending = false;
+    private static final ArrayDeque<Heartbeat> early = new ArrayDeque<Heartbeat>(); // heartbeats from before READY
 
     public WakaTime() {
     }
 
     public void initComponent() {
+        // only cheap, non-blocking work here, everything else happens in startup()
+        Startup.begin();
         log.info("Initializing WakaTime plugin v" + VERSION + " (https://wakatime.com/)");
         //System.out.println("Initializing WakaTime plugin v" + VERSION + " (https://wakatime.com/)");
 
@@ -56,6 +76,28 @@ public class WakaTime implements ApplicationComponent {
         IDE_NAME = PlatformUtils.getPlatformPrefix();
         IDE_VERSION = ApplicationInfo.getInstance().getFullVersion();
 
+        setupMenuItem();
+
+        // heartbeats are kept in memory until wakatime-cli is ready
+        setupEventListeners();
+
+        Startup.enter(Startup.Phase.CONFIG);
+
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    startup();
+                } catch (RuntimeException e) {
+                    log.error(e);
+                    Startup.enter(Startup.Phase.FAILED);
+                }
+            }
+        });
+    }
+
+    private void startup() {
+        ConfigFile.watch();
+
         WakaTime.DEBUG = WakaTime.isDebugEnabled();
         if (WakaTime.DEBUG) {
             log.setLevel(Level.DEBUG);
@@ -64,70 +106,126 @@ public class WakaTime implements ApplicationComponent {
 
         checkApiKey();
 
-        setupMenuItem();
+        setupQueueProcessor();
 
-        if (Dependencies.isPythonInstalled()) {
+        Metrics.register();
 
-            checkCore();
+        if (Broker.isEnabled()) {
+            Startup.enter(Startup.Phase.BROKER);
+            if (Broker.start()) {
+                // the owning IDE installs and runs wakatime-cli for us
+                Startup.enter(Startup.Phase.CLIENT);
+                log.info("Finished initializing WakaTime plugin");
+                return;
+            }
+        }
 
-            setupEventListeners();
+        startSending();
 
-            checkDebug();
+        checkDebug();
 
-            log.info("Finished initializing WakaTime plugin");
+        log.info("Finished initializing WakaTime plugin");
+    }
 
-        } else {
+    /**
+     * Installs what is missing and starts sending heartbeats. Runs once,
+     * during startup or when the broker this IDE forwarded heartbeats to
+     * went away.
+     */
+    private static void startSending() {
+        synchronized (WakaTime.class) {
+            if (sending)
+                return;
+            sending = true;
+        }
 
-            ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
-                public void run() {
-                    log.info("Python not found, downloading python...");
+        if (HttpSender.isEnabled()) {
+            // heartbeats go straight to the api, so python and the cli are not needed
+            log.info("Sending heartbeats to " + HttpSender.getApiUrl() + " without wakatime-cli");
+            setReady();
+            return;
+        }
 
-                    // download and install python
-                    Dependencies.installPython();
+        Startup.enter(Startup.Phase.PYTHON);
 
-                    if (Dependencies.isPythonInstalled()) {
-                        log.info("Finished installing python...");
+        if (!Dependencies.isPythonInstalled()) {
+            log.info("Python not found, downloading python...");
 
-                        checkCore();
+            // download and install python
+            Dependencies.installPython();
 
-                        setupEventListeners();
+            if (!Dependencies.isPythonInstalled()) {
+                Startup.enter(Startup.Phase.FAILED);
+                ApplicationManager.getApplication().invokeLater(new Runnable(){
+                    public void run(){
+                        Messages.showErrorDialog("WakaTime requires Python to be installed.\nYou can install it from https://www.python.org/downloads/\nAfter installing Python, restart your IDE.", "Error");
+                    }
+                });
+                return;
+            }
+            log.info("Finished installing python...");
+        }
 
-                        checkDebug();
+        Startup.enter(Startup.Phase.CLI);
 
-                        log.info("Finished initializing WakaTime plugin");
+        checkCore();
 
-                    } else {
-                        ApplicationManager.getApplication().invokeLater(new Runnable(){
-                            public void run(){
-                                Messages.showErrorDialog("WakaTime requires Python to be installed.\nYou can install it from https://www.python.org/downloads/\nAfter installing Python, restart your IDE.", "Error");
-                            }
-                        });
-                    }
-                }
-            });
+        Dependencies.installWorker();
+        log.debug("CLI location: " + Dependencies.getCLILocation());
+
+        setReady();
+    }
+
+    static void brokerLost() {
+        startSending();
+    }
+
+    /**
+     * Called when this IDE connected to a new broker after the last one
+     * went away, so the heartbeats kept meanwhile go to it.
+     */
+    static void brokerJoined() {
+        ArrayList<Heartbeat> kept;
+        synchronized (early) {
+            if (WakaTime.READY)
+                return;
+            kept = new ArrayList<Heartbeat>(early);
+            early.clear();
+        }
+        for (Heartbeat heartbeat : kept) {
+            if (!Broker.forward(heartbeat))
+                queue(heartbeat);
         }
     }
 
-    private void checkCore() {
-        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
-            public void run() {
-                if (!Dependencies.isCLIInstalled()) {
-                    log.info("Downloading and installing wakatime-cli ...");
-                    Dependencies.installCLI();
-                    WakaTime.READY = true;
-                    log.info("Finished downloading and installing wakatime-cli.");
-                } else if (Dependencies.isCLIOld()) {
-                    log.info("Upgrading wakatime-cli ...");
-                    Dependencies.upgradeCLI();
-                    WakaTime.READY = true;
-                    log.info("Finished upgrading wakatime-cli.");
-                } else {
-                    WakaTime.READY = true;
-                    log.info("wakatime-cli is up to date.");
-                }
-                log.debug("CLI location: " + Dependencies.getCLILocation());
+    private static void checkCore() {
+        if (!Dependencies.isCLIInstalled()) {
+            log.info("Downloading and installing wakatime-cli ...");
+            Dependencies.installCLI();
+            log.info("Finished downloading and installing wakatime-cli.");
+        } else if (Dependencies.isCLIOld()) {
+            log.info("Upgrading wakatime-cli ...");
+            Dependencies.upgradeCLI();
+            log.info("Finished upgrading wakatime-cli.");
+        } else {
+            log.info("wakatime-cli is up to date.");
+        }
+    }
+
+    /**
+     * Starts sending heartbeats, beginning with the ones kept since startup.
+     */
+    private static void setReady() {
+        synchronized (early) {
+            WakaTime.READY = true;
+            for (Heartbeat heartbeat : early) {
+                dispatch(heartbeat);
             }
-        });
+            if (!early.isEmpty())
+                log.debug("Sending " + early.size() + " heartbeats from startup");
+            early.clear();
+        }
+        Startup.enter(Startup.Phase.READY);
     }
 
     private void checkApiKey() {
@@ -147,10 +245,14 @@ public class WakaTime implements ApplicationComponent {
     private void setupEventListeners() {
         ApplicationManager.getApplication().invokeLater(new Runnable(){
             public void run() {
+                ProjectResolver.setup();
                 MessageBus bus = ApplicationManager.getApplication().getMessageBus();
                 connection = bus.connect();
                 connection.subscribe(AppTopics.FILE_DOCUMENT_SYNC, new CustomSaveListener());
+                BulkChanges.setup(connection);
                 EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new CustomDocumentListener());
+                if (ActivitySampler.isEnabled())
+                    ActivitySampler.start();
             }
         });
     }
@@ -161,150 +263,302 @@ public class WakaTime implements ApplicationComponent {
                 ActionManager am = ActionManager.getInstance();
                 PluginMenu action = new PluginMenu();
                 am.registerAction("WakaTimeApiKey", action);
+                DiagnosticsMenu diagnostics = new DiagnosticsMenu();
+                am.registerAction("WakaTimeDiagnostics", diagnostics);
                 DefaultActionGroup menu = (DefaultActionGroup) am.getAction("ToolsMenu");
                 menu.addSeparator();
                 menu.add(action);
+                menu.add(diagnostics);
             }
         });
     }
 
+    private void setupQueueProcessor() {
+        dispatcher = new HeartbeatDispatcher(new HeartbeatDispatcher.Sender() {
+            public void send(List<Heartbeat> batch) {
+                // heartbeats forwarded by other IDEs are sent under their own plugin
+                for (List<Heartbeat> group : Heartbeat.groupByPlugin(batch)) {
+                    // sent, or rejected by the api for good, and never sent again either way
+                    List<Heartbeat> done = Collections.emptyList();
+                    HeartbeatJournal j = journal;
+                    try {
+                        if (HttpSender.isEnabled())
+                            done = HttpSender.send(group);
+                        else if (sendHeartbeat(group.get(0), new ArrayList<Heartbeat>(group.subList(1, group.size()))))
+                            done = group;
+                    } finally {
+                        Metrics.sent.addAndGet(done.size());
+                        Metrics.failed.addAndGet(group.size() - done.size());
+                        if (j != null) {
+                            j.ack(done);
+                            if (done.size() < group.size()) {
+                                ArrayList<Heartbeat> unsent = new ArrayList<Heartbeat>(group);
+                                unsent.removeAll(done);
+                                j.release(unsent);
+                            }
+                        }
+                    }
+                }
+            }
+
+            public void dropped(Heartbeat heartbeat) {
+                HeartbeatJournal j = journal;
+                if (j != null)
+                    j.release(Collections.singletonList(heartbeat));
+            }
+        }, getBatchWindow(), MAX_BATCH_SIZE, HeartbeatDispatcher.QUEUE_CAPACITY, getProjectRateLimit());
+        dispatcher.start();
+        HeartbeatJournal j = new HeartbeatJournal(new File(Dependencies.getJournalLocation()));
+        try {
+            j.open();
+            journal = j;
+        } catch (IOException e) {
+            log.warn("Unable to open heartbeat journal, unsent heartbeats will not survive a restart: " + e);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                HeartbeatJournal j = journal;
+                if (j == null || !WakaTime.READY)
+                    return;
+                for (Heartbeat heartbeat : j.pendingForRetry(HeartbeatDispatcher.QUEUE_CAPACITY / 2)) {
+                    dispatcher.add(heartbeat);
+                }
+            }
+        }, JOURNAL_DRAIN, JOURNAL_DRAIN, TimeUnit.MINUTES);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if (worker != null)
+                    worker.checkHealth();
+            }
+        }, WORKER_HEALTH_CHECK, WORKER_HEALTH_CHECK, TimeUnit.MINUTES);
+        throttle.setInterval(HeartbeatRate.getMinInterval());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                rate.adjust(getQueueDepth());
+            }
+        }, HeartbeatRate.ADJUST_INTERVAL, HeartbeatRate.ADJUST_INTERVAL, TimeUnit.SECONDS);
+    }
+
     private void checkDebug() {
-        if (WakaTime.DEBUG)
-            Messages.showWarningDialog("Running WakaTime in DEBUG mode. Your IDE may be slow when saving or editing files.", "Debug");
+        if (!WakaTime.DEBUG)
+            return;
+        ApplicationManager.getApplication().invokeLater(new Runnable(){
+            public void run() {
+                Messages.showWarningDialog("Running WakaTime in DEBUG mode. Your IDE may be slow when saving or editing files.", "Debug");
+            }
+        });
     }
 
     public void disposeComponent() {
         try {
             connection.disconnect();
         } catch(Exception e) { }
+        ActivitySampler.stop();
+        BulkChanges.stop();
+        // lets another IDE take over sending heartbeats
+        Broker.stop();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        // sends heartbeats still waiting in the queue
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+        if (worker != null) {
+            worker.stop();
+        }
+        if (journal != null) {
+            // keeps heartbeats from an unfinished startup for next time
+            synchronized (early) {
+                for (Heartbeat heartbeat : early) {
+                    journal.append(heartbeat, false);
+                }
+                early.clear();
+            }
+            journal.close();
+        }
+        ConfigFile.stopWatching();
+        Metrics.unregister();
     }
 
-    public static void sendHeartbeat(final String file, final boolean isWrite) {
-        if (WakaTime.READY)
-            sendHeartbeat(file, isWrite, 0);
+    public static void sendHeartbeat(final String file, final String project, final boolean isWrite) {
+        Heartbeat heartbeat = new Heartbeat(file, System.currentTimeMillis(), isWrite, project);
+        Metrics.generated.incrementAndGet();
+        if (!Broker.forward(heartbeat))
+            queue(heartbeat);
     }
 
-    private static void sendHeartbeat(final String file, final boolean isWrite, final int tries) {
-        final String[] cmds = buildCliCommand(file, isWrite);
-        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
-            public void run() {
-                try {
-                    log.debug("Executing CLI: " + Arrays.toString(obfuscateKey(cmds)));
-                    Process proc = Runtime.getRuntime().exec(cmds);
-                    if (WakaTime.DEBUG) {
-                        BufferedReader stdInput = new BufferedReader(new
-                                InputStreamReader(proc.getInputStream()));
-                        BufferedReader stdError = new BufferedReader(new
-                                InputStreamReader(proc.getErrorStream()));
-                        proc.waitFor();
-                        String s;
-                        while ((s = stdInput.readLine()) != null) {
-                            log.debug(s);
-                        }
-                        while ((s = stdError.readLine()) != null) {
-                            log.debug(s);
-                        }
-                        log.debug("Command finished with return value: " + proc.exitValue());
-                    }
-                } catch (Exception e) {
-                    if (tries < 3) {
-                        log.debug(e);
-                        try {
-                            Thread.sleep(30);
-                        } catch (InterruptedException e1) {
-                            log.error(e1);
-                        }
-                        sendHeartbeat(file, isWrite, tries + 1);
-                    } else {
+    // heartbeats forwarded by other IDEs while this one owns the broker,
+    // or handed back by the broker connection when its owner went away
+    static void receiveHeartbeat(Heartbeat heartbeat) {
+        queue(heartbeat);
+    }
+
+    private static void queue(Heartbeat heartbeat) {
+        if (!Broker.accept(heartbeat))
+            return;
+        if (!WakaTime.READY) {
+            synchronized (early) {
+                if (!WakaTime.READY) {
+                    if (early.size() >= HeartbeatDispatcher.QUEUE_CAPACITY)
+                        early.poll();
+                    early.add(heartbeat);
+                    return;
+                }
+            }
+        }
+        dispatch(heartbeat);
+    }
+
+    private static void dispatch(Heartbeat heartbeat) {
+        HeartbeatJournal j = journal;
+        if (j != null)
+            j.append(heartbeat, true);
+        dispatcher.add(heartbeat);
+    }
+
+    public static int getQueueDepth() {
+        return dispatcher == null ? 0 : dispatcher.getQueueDepth();
+    }
+
+    public static long getSenderCpuNanos() {
+        return dispatcher == null ? 0 : dispatcher.getCpuNanos();
+    }
+
+    public static int getStartupBacklog() {
+        synchronized (early) {
+            return early.size();
+        }
+    }
+
+    public static String getProjectSummary() {
+        return dispatcher == null ? "" : dispatcher.projectSummary();
+    }
+
+    public static long getDroppedCount() {
+        return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+    }
+
+    public static long getCoalescedCount() {
+        return dispatcher == null ? 0 : dispatcher.getCoalescedCount();
+    }
+
+    public static int getJournalPending() {
+        HeartbeatJournal j = journal;
+        return j == null ? 0 : j.getPendingCount();
+    }
+
+    private static boolean sendHeartbeat(final Heartbeat heartbeat, final ArrayList<Heartbeat> extraHeartbeats) {
+        final String[] cmds = buildCliCommand(heartbeat, extraHeartbeats);
+        if (sendToWorker(cmds, extraHeartbeats))
+            return true;
+        for (int tries = 0; ; tries++) {
+            try {
+                log.debug("Executing CLI: " + Arrays.toString(obfuscateKey(cmds)));
+                String input = extraHeartbeats.size() > 0 ? Heartbeat.toJSON(extraHeartbeats) + "\n" : null;
+                ProcessRunner.Result result = ProcessRunner.run(cmds, input, CLI_TIMEOUT, "wakatime-cli");
+                Metrics.cliSpawn.recordNanos(result.spawnNanos);
+                Metrics.cliExit.recordNanos(result.runNanos);
+                if (result.timedOut())
+                    return false;
+                if (result.exitCode != 0)
+                    Metrics.cliErrors.incrementAndGet();
+                log.debug("Command finished with return value: " + result.exitCode);
+                return true;
+            } catch (Exception e) {
+                if (tries < 3) {
+                    Metrics.retries.incrementAndGet();
+                    log.debug(e);
+                    try {
+                        Thread.sleep(30);
+                    } catch (InterruptedException e1) {
                         log.error(e);
+                        return false;
                     }
+                } else {
+                    log.error(e);
+                    return false;
                 }
             }
-        });
+        }
+    }
+
+    private static boolean sendToWorker(String[] cmds, ArrayList<Heartbeat> extraHeartbeats) {
+        if (worker == null) {
+            if (!new File(Dependencies.getWorkerLocation()).exists())
+                return false;
+            worker = new CliWorker(Dependencies.getWorkerCommand());
+        }
+        // the worker is already running python and cli.py, so skip those arguments
+        String[] args = Arrays.copyOfRange(cmds, 2, cmds.length);
+        String input = extraHeartbeats.size() > 0 ? Heartbeat.toJSON(extraHeartbeats) : null;
+        long started = System.nanoTime();
+        Integer exitCode = worker.send(args, input);
+        if (exitCode == null) {
+            log.debug("wakatime-cli worker unavailable, spawning cli.py instead");
+            return false;
+        }
+        Metrics.workerResponse.recordNanos(System.nanoTime() - started);
+        if (exitCode != 0)
+            Metrics.cliErrors.incrementAndGet();
+        log.debug("Worker finished with return value: " + exitCode);
+        return true;
     }
 
-    public static String[] buildCliCommand(String file, boolean isWrite) {
+    public static String[] buildCliCommand(Heartbeat heartbeat, ArrayList<Heartbeat> extraHeartbeats) {
         ArrayList<String> cmds = new ArrayList<String>();
         cmds.add(Dependencies.getPythonLocation());
         cmds.add(Dependencies.getCLILocation());
         cmds.add("--file");
-        cmds.add(file);
+        cmds.add(heartbeat.getEntity());
+        cmds.add("--time");
+        cmds.add(heartbeat.getTimestampSeconds());
         cmds.add("--key");
         cmds.add(ApiKey.getApiKey());
-        String project = WakaTime.getProjectName();
-        if (project != null) {
+        if (heartbeat.getProject() != null) {
             cmds.add("--project");
-            cmds.add(project);
+            cmds.add(heartbeat.getProject());
         }
         cmds.add("--plugin");
-        cmds.add(IDE_NAME+"/"+IDE_VERSION+" "+IDE_NAME+"-wakatime/"+VERSION);
-        if (isWrite)
+        cmds.add(heartbeat.getPlugin());
+        if (heartbeat.isWrite())
             cmds.add("--write");
+        if (extraHeartbeats.size() > 0)
+            cmds.add("--extra-heartbeats");
         return cmds.toArray(new String[cmds.size()]);
     }
 
-    public static String getProjectName() {
-        DataContext dataContext = DataManager.getInstance().getDataContext();
-        if (dataContext != null) {
-            Project project = null;
-
-            try {
-                project = PlatformDataKeys.PROJECT.getData(dataContext);
-            } catch (NoClassDefFoundError e) {
-                try {
-                    project = DataKeys.PROJECT.getData(dataContext);
-                } catch (NoClassDefFoundError ex) { }
-            }
-            if (project != null) {
-                return project.getName();
-            }
-        }
-        return null;
+    public static String getPlugin() {
+        return IDE_NAME+"/"+IDE_VERSION+" "+IDE_NAME+"-wakatime/"+VERSION;
     }
 
-    public static boolean enoughTimePassed(long currentTime) {
-        return WakaTime.lastTime + FREQUENCY * 60 < currentTime;
+    public static boolean enoughTimePassed(String file, long currentTime) {
+        return throttle.tryAcquire(file, currentTime);
     }
 
     public static boolean shouldLogFile(String file) {
         if (file.equals("atlassian-ide-plugin.xml") || file.contains("/.idea/workspace.xml")) {
             return false;
         }
-        return true;
+        return PathFilter.get().shouldLog(file);
+    }
+
+    // seconds heartbeats are held to merge bursts, coalesce_window in ~/.wakatime.cfg
+    public static long getBatchWindow() {
+        return Math.max(0, ConfigFile.get().getLong("settings", "coalesce_window", QUEUE_TIMEOUT));
+    }
+
+    // heartbeats per minute for each project, 0 for no limit
+    public static int getProjectRateLimit() {
+        return (int) Math.max(0, ConfigFile.get().getLong("settings", "project_rate_limit", PROJECT_RATE_LIMIT));
     }
 
     public static Boolean isDebugEnabled() {
-        Boolean debug = false;
-        File userHome = new File(System.getProperty("user.home"));
-        File configFile = new File(userHome, WakaTime.CONFIG);
-        BufferedReader br = null;
-        try {
-            br = new BufferedReader(new FileReader(configFile.getAbsolutePath()));
-        } catch (FileNotFoundException e1) {}
-        if (br != null) {
-            try {
-                String line = br.readLine();
-                while (line != null) {
-                    String[] parts = line.split("=");
-                    if (parts.length == 2 && parts[0].trim().equals("debug") && parts[1].trim().toLowerCase().equals("true")) {
-                        debug = true;
-                    }
-                    line = br.readLine();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return debug;
+        return ConfigFile.get().getBoolean("settings", "debug", false);
     }
 
-    private static String obfuscateKey(String key) {
+    static String obfuscateKey(String key) {
         String newKey = null;
         if (key != null) {
             newKey = key;
@@ -314,7 +568,7 @@ public class WakaTime implements ApplicationComponent {
         return newKey;
     }
 
-    private static String[] obfuscateKey(String[] cmds) {
+    static String[] obfuscateKey(String[] cmds) {
         ArrayList<String> newCmds = new ArrayList<String>();
         String lastCmd = "";
         for (String cmd : cmds) {
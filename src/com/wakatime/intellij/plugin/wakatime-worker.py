@@ -0,0 +1,79 @@
+# ==========================================================
+# File:        wakatime-worker.py
+# Description: Long-lived wakatime-cli process driven over stdin/stdout.
+# Maintainer:  WakaTime <support@wakatime.com>
+# License:     BSD, see LICENSE for more details.
+# Website:     https://wakatime.com/
+# ==========================================================
+#
+# Usage: python wakatime-worker.py <path to wakatime-master>
+#
+# Reads one request per line from stdin and writes one response per line
+# to stdout. A request is either the word "ping", answered with "pong", or
+# a JSON object {"argv": [...], "stdin": "..."} holding the arguments that
+# would otherwise be passed to cli.py, answered with the exit code. When the
+# worker itself fails to run the cli the answer is "error" instead, so the
+# plugin runs cli.py on its own rather than taking it for a cli exit code.
+# A worker which cannot find the cli exits before answering "ping".
+
+import io
+import json
+import sys
+
+sys.path.insert(0, sys.argv[1])
+
+try:
+    from wakatime.main import execute
+except ImportError:
+    try:
+        # older clients export main() from the package, newer ones only have the module
+        from wakatime import main as execute
+    except ImportError:
+        execute = None
+
+
+def handle(request):
+    argv = ['cli.py'] + request['argv']
+    data = request.get('stdin')
+    old_stdin, old_stdout = sys.stdin, sys.stdout
+    # never let the cli read protocol requests from the real stdin
+    sys.stdin = io.StringIO(data if data is not None else u'')
+    # keep stdout free for protocol responses
+    sys.stdout = sys.stderr
+    try:
+        return str(execute(argv) or 0)
+    except SystemExit as e:
+        return str(e.code if isinstance(e.code, int) else 1)
+    except Exception as e:
+        sys.stderr.write('wakatime-worker: %r\n' % e)
+        return 'error'
+    finally:
+        sys.stdin, sys.stdout = old_stdin, old_stdout
+
+
+def main():
+    if not callable(execute):
+        sys.stderr.write('wakatime-worker: no cli entry point in %s\n' % sys.argv[1])
+        return 1
+    protocol_in = sys.stdin
+    protocol_out = sys.stdout
+    while True:
+        line = protocol_in.readline()
+        if not line:
+            return 0
+        line = line.strip()
+        if not line:
+            continue
+        if line == 'ping':
+            response = 'pong'
+        else:
+            try:
+                response = handle(json.loads(line))
+            except ValueError:
+                response = 'error'
+        protocol_out.write(response + '\n')
+        protocol_out.flush()
+
+
+if __name__ == '__main__':
+    sys.exit(main())
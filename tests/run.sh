@@ -0,0 +1,29 @@
+#!/bin/sh
+# Builds the plugin against the stubs in benchmarks/stubs and runs the
+# JUnit tests in tests/src. JUNIT_CLASSPATH must list junit 4 and
+# hamcrest-core. The tests start python from PATH, or from
+# -Dtest.python=... passed through JAVA_OPTS.
+#
+#   JUNIT_CLASSPATH=junit-4.12.jar:hamcrest-core-1.3.jar tests/run.sh [test class ...]
+
+set -e
+
+if [ -z "$JUNIT_CLASSPATH" ]; then
+    echo "Set JUNIT_CLASSPATH to the junit and hamcrest jars" >&2
+    exit 1
+fi
+
+cd "$(dirname "$0")/.."
+BUILD=tests/build
+rm -rf "$BUILD"
+mkdir -p "$BUILD/classes"
+
+find src benchmarks/stubs tests/src -name '*.java' > "$BUILD/sources.txt"
+javac -source 1.8 -target 1.8 -nowarn -cp "$JUNIT_CLASSPATH" -d "$BUILD/classes" @"$BUILD/sources.txt"
+cp src/com/wakatime/intellij/plugin/wakatime-worker.py "$BUILD/classes/com/wakatime/intellij/plugin/"
+
+if [ $# -eq 0 ]; then
+    set -- $(cd tests/src && find . -name '*Test.java' | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g')
+fi
+
+exec java -Djava.awt.headless=true $JAVA_OPTS -cp "$BUILD/classes:$JUNIT_CLASSPATH" org.junit.runner.JUnitCore "$@"
@@ -0,0 +1,168 @@
+/* ==========================================================
+File:        CliWorkerTest.java
+Description: Tests the worker protocol against tests/stub-worker.py.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class CliWorkerTest {
+
+    public static final String PYTHON = System.getProperty("test.python", "python");
+    public static final String STUB_WORKER = "tests/stub-worker.py";
+    public static final String WORKER = "src/com/wakatime/intellij/plugin/wakatime-worker.py";
+
+    private CliWorker worker;
+    private File cliDir;
+
+    @After
+    public void tearDown() {
+        if (worker != null)
+            worker.stop();
+        if (cliDir != null)
+            delete(cliDir);
+    }
+
+    @Test
+    public void startsWithPingAndReturnsExitCodes() {
+        worker = new CliWorker(new String[] {PYTHON, STUB_WORKER});
+        assertFalse(worker.isRunning());
+        assertEquals(Integer.valueOf(0), worker.send(new String[] {"--file", "/tmp/a.java"}, null));
+        assertTrue(worker.isRunning());
+        assertEquals(Integer.valueOf(102), worker.send(new String[] {"--exit", "102"}, "[{\"entity\":\"/tmp/b\"}]"));
+    }
+
+    @Test
+    public void healthCheckKeepsAnsweringWorker() {
+        worker = new CliWorker(new String[] {PYTHON, STUB_WORKER});
+        worker.send(new String[0], null);
+        worker.checkHealth();
+        assertTrue(worker.isRunning());
+    }
+
+    @Test
+    public void crashFallsBackAndRestarts() {
+        worker = new CliWorker(new String[] {PYTHON, STUB_WORKER});
+        long crashes = Metrics.workerCrashes.get();
+        assertNull(worker.send(new String[] {"--crash"}, null));
+        assertFalse(worker.isRunning());
+        assertEquals(crashes + 1, Metrics.workerCrashes.get());
+        // the next heartbeat starts a new worker
+        assertEquals(Integer.valueOf(0), worker.send(new String[0], null));
+    }
+
+    @Test
+    public void workerWhichNeverAnswersPingIsUnavailable() {
+        worker = new CliWorker(new String[] {PYTHON, "-c", "import sys; sys.exit(0)"});
+        assertNull(worker.send(new String[0], null));
+        assertFalse(worker.isRunning());
+    }
+
+    @Test
+    public void workerErrorIsNotAnExitCode() {
+        worker = new CliWorker(new String[] {PYTHON, STUB_WORKER});
+        assertNull(worker.send(new String[] {"--error"}, null));
+    }
+
+    @Test
+    public void workerRunsTheCliEntryPoint() throws IOException {
+        worker = new CliWorker(new String[] {PYTHON, WORKER, fakeCli("def execute(argv):\n    return 0 if '--ok' in argv else 102\n").getPath()});
+        assertEquals(Integer.valueOf(0), worker.send(new String[] {"--ok"}, null));
+        assertEquals(Integer.valueOf(102), worker.send(new String[0], null));
+    }
+
+    @Test
+    public void workerAnswersErrorWhenTheCliRaises() throws IOException {
+        worker = new CliWorker(new String[] {PYTHON, WORKER, fakeCli("def execute(argv):\n    raise TypeError('broken')\n").getPath()});
+        assertNull(worker.send(new String[0], null));
+    }
+
+    @Test
+    public void workerWithoutCallableEntryPointNeverStarts() throws IOException {
+        // wakatime.main is a module without execute, so the fallback import binds the module
+        worker = new CliWorker(new String[] {PYTHON, WORKER, fakeCli("VERSION = 1\n").getPath()});
+        assertNull(worker.send(new String[0], null));
+        assertFalse(worker.isRunning());
+    }
+
+    @Test
+    public void stopEndsTheProcess() {
+        worker = new CliWorker(new String[] {PYTHON, STUB_WORKER});
+        worker.send(new String[0], null);
+        worker.stop();
+        assertFalse(worker.isRunning());
+    }
+
+    @Test
+    public void stopKillsAWorkerWhichDoesNotExit() throws Exception {
+        // tells whether the process is alive through /proc
+        if (!new File("/proc/self").exists())
+            return;
+        File pidFile = File.createTempFile("wakatime-worker", ".pid");
+        try {
+            worker = new CliWorker(new String[] {PYTHON, STUB_WORKER, "--stubborn", pidFile.getPath()});
+            assertEquals(Integer.valueOf(0), worker.send(new String[0], null));
+            BufferedReader reader = new BufferedReader(new FileReader(pidFile));
+            File proc;
+            try {
+                proc = new File("/proc/" + reader.readLine().trim());
+            } finally {
+                reader.close();
+            }
+            assertTrue(proc.exists());
+            worker.stop();
+            // the process is gone once java has reaped it
+            long deadline = System.currentTimeMillis() + 5000;
+            while (proc.exists() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(proc.exists());
+        } finally {
+            pidFile.delete();
+        }
+    }
+
+    // a wakatime package whose main module holds the given source
+    private File fakeCli(String main) throws IOException {
+        cliDir = File.createTempFile("wakatime-cli", "");
+        cliDir.delete();
+        File pkg = new File(cliDir, "wakatime");
+        pkg.mkdirs();
+        write(new File(pkg, "__init__.py"), "");
+        write(new File(pkg, "main.py"), main);
+        return cliDir;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,210 @@
+/* ==========================================================
+File:        DownloaderTest.java
+Description: Tests resumed and checksummed downloads against a local server.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class DownloaderTest {
+
+    private static final String ETAG = "\"v2\"";
+
+    private final byte[] content = new byte[200 * 1024];
+    private HttpServer server;
+    private String url;
+    private File dir;
+    private File saveAs;
+    private File partFile;
+    private File metaFile;
+    // Range and If-Range of each request, null when absent
+    private final List<String[]> requests = new ArrayList<String[]>();
+    // bytes of the body to send before hanging up on the next request, or -1
+    private volatile int truncateNext = -1;
+    // bytes before the requested start to send on the next ranged request, or 0
+    private volatile int misplaceNextRange = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + i / 7);
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/file", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+        dir = File.createTempFile("wakatime-download", "");
+        dir.delete();
+        dir.mkdirs();
+        saveAs = new File(dir, "wakatime-cli.zip");
+        partFile = new File(dir, "wakatime-cli.zip.part");
+        metaFile = new File(dir, "wakatime-cli.zip.part.properties");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        for (File file : new File[] {saveAs, partFile, metaFile, dir}) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void downloadsAndChecksTheDigest() throws Exception {
+        assertTrue(new Downloader(url, saveAs, sha256(content), null).download());
+        assertArrayEquals(content, read(saveAs));
+        assertFalse(partFile.exists());
+        assertFalse(metaFile.exists());
+    }
+
+    @Test
+    public void digestMismatchDiscardsTheDownload() throws Exception {
+        String wrong = sha256(new byte[] {1, 2, 3});
+        assertFalse(new Downloader(url, saveAs, wrong, null).download());
+        assertFalse(saveAs.exists());
+        assertFalse(partFile.exists());
+        assertEquals(Downloader.ATTEMPTS, requests.size());
+    }
+
+    @Test
+    public void interruptedDownloadResumesWithRange() throws Exception {
+        truncateNext = 50 * 1024;
+        assertTrue(new Downloader(url, saveAs, sha256(content), null).download());
+        assertArrayEquals(content, read(saveAs));
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0)[0]);
+        assertEquals("bytes=" + 50 * 1024 + "-", requests.get(1)[0]);
+        assertEquals(ETAG, requests.get(1)[1]);
+    }
+
+    @Test
+    public void changedFileStartsOver() throws Exception {
+        // a .part left from an older version of the file
+        write(partFile, new byte[30 * 1024]);
+        writeValidator(url, "\"v1\"");
+        assertTrue(new Downloader(url, saveAs, sha256(content), null).download());
+        assertArrayEquals(content, read(saveAs));
+        assertEquals(1, requests.size());
+        assertEquals("\"v1\"", requests.get(0)[1]);
+    }
+
+    @Test
+    public void partFromAnotherUrlIsNotResumed() throws Exception {
+        write(partFile, Arrays.copyOf(content, 30 * 1024));
+        writeValidator(url + "?other", ETAG);
+        assertTrue(new Downloader(url, saveAs, null, null).download());
+        assertArrayEquals(content, read(saveAs));
+        assertNull(requests.get(0)[0]);
+        assertNull(requests.get(0)[1]);
+    }
+
+    @Test
+    public void mismatchedRangeStartsOver() throws Exception {
+        write(partFile, Arrays.copyOf(content, 30 * 1024));
+        writeValidator(url, ETAG);
+        misplaceNextRange = 10 * 1024;
+        assertTrue(new Downloader(url, saveAs, sha256(content), null).download());
+        assertArrayEquals(content, read(saveAs));
+        assertEquals(2, requests.size());
+        assertEquals("bytes=" + 30 * 1024 + "-", requests.get(0)[0]);
+        assertNull(requests.get(1)[0]);
+    }
+
+    // honours Range only when If-Range matches the current ETag, like a real server
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        synchronized (requests) {
+            requests.add(new String[] {range, ifRange});
+        }
+        int start = 0;
+        if (range != null && ETAG.equals(ifRange))
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+        if (start > 0) {
+            start -= misplaceNextRange;
+            misplaceNextRange = 0;
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        if (start > 0)
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+        exchange.sendResponseHeaders(start > 0 ? 206 : 200, content.length - start);
+        OutputStream out = exchange.getResponseBody();
+        if (truncateNext >= 0) {
+            out.write(content, start, truncateNext);
+            out.flush();
+            truncateNext = -1;
+            // the server drops the connection when a handler fails
+            throw new IOException("hanging up");
+        }
+        out.write(content, start, content.length - start);
+        out.close();
+    }
+
+    private void writeValidator(String url, String validator) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("validator", validator);
+        OutputStream out = new FileOutputStream(metaFile);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, len);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
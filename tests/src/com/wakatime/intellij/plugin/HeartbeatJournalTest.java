@@ -0,0 +1,152 @@
+/* ==========================================================
+File:        HeartbeatJournalTest.java
+Description: Tests retries, reopening and compaction of the journal.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class HeartbeatJournalTest {
+
+    private File dir;
+    private HeartbeatJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("wakatime-journal", "");
+        dir.delete();
+        journal = open();
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void heartbeatsInFlightAreNotRetried() {
+        Heartbeat dispatched = new Heartbeat("/tmp/dispatched.java", 1000, false, "journal");
+        Heartbeat unsent = new Heartbeat("/tmp/unsent.java", 2000, true, null);
+        journal.append(dispatched, true);
+        journal.append(unsent, false);
+        List<Heartbeat> retry = journal.pendingForRetry(10);
+        assertEquals(1, retry.size());
+        assertEquals("/tmp/unsent.java", retry.get(0).getEntity());
+        assertNull(retry.get(0).getProject());
+        assertTrue(retry.get(0).isWrite());
+        // handed out, so in flight until acked or released
+        assertTrue(journal.pendingForRetry(10).isEmpty());
+        assertEquals(2, journal.getPendingCount());
+    }
+
+    @Test
+    public void releasedHeartbeatsWaitBeforeRetry() {
+        Heartbeat heartbeat = new Heartbeat("/tmp/failed.java", 1000, false, "journal");
+        journal.append(heartbeat, true);
+        journal.release(Collections.singletonList(heartbeat));
+        assertTrue(journal.pendingForRetry(10).isEmpty());
+        assertEquals(1, journal.getPendingCount());
+        journal.ack(Collections.singletonList(heartbeat));
+        assertEquals(0, journal.getPendingCount());
+    }
+
+    @Test
+    public void reopeningAppendsToTheLastSegment() throws IOException {
+        journal.append(new Heartbeat("/tmp/first.java", 1000, false, "first"), false);
+        journal.close();
+        journal = open();
+        journal.append(new Heartbeat("/tmp/second.java", 2000, false, "second"), false);
+        journal.close();
+        assertEquals(1, segmentCount());
+        journal = open();
+        List<Heartbeat> retry = journal.pendingForRetry(10);
+        assertEquals(2, retry.size());
+        assertEquals("/tmp/first.java", retry.get(0).getEntity());
+        assertEquals("first", retry.get(0).getProject());
+        assertEquals("/tmp/second.java", retry.get(1).getEntity());
+        assertEquals("second", retry.get(1).getProject());
+    }
+
+    @Test
+    public void segmentsLeftWithNothingToSendAreDeleted() throws IOException {
+        ArrayList<Heartbeat> heartbeats = new ArrayList<Heartbeat>();
+        for (int i = 0; i < 30000; i++) {
+            Heartbeat heartbeat = new Heartbeat("/tmp/journal/file" + i + ".java", i, false, "journal");
+            journal.append(heartbeat, true);
+            heartbeats.add(heartbeat);
+        }
+        assertTrue(segmentCount() > 1);
+        journal.ack(heartbeats);
+        journal.close();
+        assertEquals(1, segmentCount());
+        journal = open();
+        assertEquals(0, journal.getPendingCount());
+    }
+
+    @Test
+    public void rotatingBeforeTheSpareIsReadyKeepsEveryHeartbeat() throws IOException {
+        // holds the background thread, so the spare for the segment after next is still queued
+        final CountDownLatch busy = new CountDownLatch(1);
+        journal.submit(new Runnable() {
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Thread release = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                busy.countDown();
+            }
+        };
+        release.start();
+        int count = 80000;
+        for (int i = 0; i < count; i++) {
+            journal.append(new Heartbeat("/tmp/journal/file" + i + ".java", i, false, "journal"), false);
+        }
+        assertTrue(segmentCount() >= 3);
+        journal.close();
+        journal = open();
+        assertEquals(count, journal.getPendingCount());
+    }
+
+    private HeartbeatJournal open() throws IOException {
+        HeartbeatJournal j = new HeartbeatJournal(dir);
+        j.open();
+        return j;
+    }
+
+    private int segmentCount() {
+        String[] names = dir.list();
+        return names == null ? 0 : names.length;
+    }
+}
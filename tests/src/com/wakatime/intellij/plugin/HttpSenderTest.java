@@ -0,0 +1,85 @@
+/* ==========================================================
+File:        HttpSenderTest.java
+Description: Tests reading bulk responses and .wakatime-project files.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+package com.wakatime.intellij.plugin;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HttpSenderTest {
+
+    @Test
+    public void readsOneStatusPerHeartbeat() {
+        String response = "{\"responses\": [[{\"data\": {\"id\": \"1\", \"entity\": \"/tmp/[201]\"}}, 201],"
+                + " [{\"errors\": {\"time\": [\"Not a \\\"valid\\\" time 202.\"]}}, 400], [null, 202]]}";
+        int[] statuses = HttpSender.statuses(response);
+        assertNotNull(statuses);
+        assertEquals("[201, 400, 202]", Arrays.toString(statuses));
+    }
+
+    @Test
+    public void responseWithoutStatusesIsNull() {
+        assertNull(HttpSender.statuses(""));
+        assertNull(HttpSender.statuses("{\"data\": []}"));
+    }
+
+    @Test
+    public void onlyClientErrorsAreRejectedForGood() {
+        assertTrue(HttpSender.isRejected(400));
+        assertTrue(HttpSender.isRejected(413));
+        assertTrue(HttpSender.isRejected(422));
+        assertFalse(HttpSender.isRejected(401));
+        assertFalse(HttpSender.isRejected(429));
+        assertFalse(HttpSender.isRejected(500));
+        assertFalse(HttpSender.isRejected(503));
+    }
+
+    @Test
+    public void projectFileSetsProjectAndBranch() throws IOException {
+        File root = File.createTempFile("wakatime-project", "");
+        root.delete();
+        File src = new File(root, "src/main");
+        src.mkdirs();
+        File projectFile = new File(root, ".wakatime-project");
+        try {
+            String entity = new File(src, "Main.java").getPath();
+            assertNull(HttpSender.readProjectFile(entity)[0]);
+
+            write(projectFile, "my-project\nfeature\n");
+            String[] read = HttpSender.readProjectFile(entity);
+            assertEquals("my-project", read[0]);
+            assertEquals("feature", read[1]);
+
+            write(projectFile, "\n");
+            read = HttpSender.readProjectFile(entity);
+            assertNull(read[0]);
+            assertNull(read[1]);
+        } finally {
+            projectFile.delete();
+            src.delete();
+            src.getParentFile().delete();
+            root.delete();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+# Stands in for wakatime-worker.py in tests: speaks the same line protocol
+# without wakatime-cli. A request is answered with the number after
+# --exit in its argv, or 0; a request with --crash makes it exit without
+# answering, like a worker whose interpreter died, and one with --error is
+# answered with "error", like a worker which failed to run the cli.
+# Started with --stubborn <pidfile>, it writes its pid there, ignores
+# SIGTERM and keeps running after stdin is closed, like a worker stuck
+# in the cli.
+
+import json
+import signal
+import sys
+import time
+
+stubborn = '--stubborn' in sys.argv
+if stubborn:
+    import os
+    signal.signal(signal.SIGTERM, signal.SIG_IGN)
+    with open(sys.argv[sys.argv.index('--stubborn') + 1], 'w') as pidfile:
+        pidfile.write(str(os.getpid()))
+
+for line in iter(sys.stdin.readline, ''):
+    line = line.strip()
+    if not line:
+        continue
+    if line == 'ping':
+        sys.stdout.write('pong\n')
+    else:
+        argv = json.loads(line)['argv']
+        if '--crash' in argv:
+            sys.exit(1)
+        if '--error' in argv:
+            sys.stdout.write('error\n')
+            sys.stdout.flush()
+            continue
+        code = int(argv[argv.index('--exit') + 1]) if '--exit' in argv else 0
+        sys.stdout.write('%d\n' % code)
+    sys.stdout.flush()
+
+if stubborn:
+    time.sleep(60)